@@ -0,0 +1,57 @@
+package nl.ivonet.classloader.benchmark;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+
+/**
+ * The bytes allocated per cached lookup of the {@link LoaderBenchmark}: a class that was loaded before, through the
+ * whole chain, and a resource that was found before. Both should allocate (close to) nothing, so any garbage a change
+ * adds to these paths shows here. It is the same as running the benchmarks with {@code -prof gc} and reading the
+ * {@code gc.alloc.rate.norm} lines.
+ * <p/>
+ * Howto run:
+ * <pre>
+ * mvn install
+ * mvn -f benchmarks/pom.xml package
+ * java -cp benchmarks/target/benchmarks.jar nl.ivonet.classloader.benchmark.AllocationProfile
+ * </pre>
+ *
+ * @author Ivo Woltring
+ */
+public final class AllocationProfile {
+    private static final String ALLOCATED = "gc.alloc.rate.norm";
+
+    private AllocationProfile() {
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(LoaderBenchmark.class.getName() + "\\.(loadClassHit|findResource)$")
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(3)
+                .measurementIterations(3)
+                .build();
+        for (final RunResult run : new Runner(options).run()) {
+            final BenchmarkParams params = run.getParams();
+            final StringBuilder key = new StringBuilder(params.getBenchmark()
+                                                              .substring(LoaderBenchmark.class.getName().length() + 1));
+            for (final String param : params.getParamsKeys()) {
+                key.append(' ').append(param).append('=').append(params.getParam(param));
+            }
+            for (final Map.Entry<String, Result> secondary : run.getSecondaryResults().entrySet()) {
+                // older JMH versions prefix the profiler results with a dot
+                if (secondary.getKey().endsWith(ALLOCATED)) {
+                    System.out.printf("%-50s %8.1f B/op%n", key, secondary.getValue().getScore());
+                }
+            }
+        }
+    }
+}
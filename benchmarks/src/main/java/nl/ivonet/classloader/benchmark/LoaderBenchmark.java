@@ -0,0 +1,147 @@
+package nl.ivonet.classloader.benchmark;
+
+import nl.ivonet.classloader.trial.IvoNetClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot paths of the {@link IvoNetClassLoader} on a generated search path.
+ * <p/>
+ * Like SecondTry the loaders form a chain: the first one has the bootstrap loader as parent, every next one has the
+ * previous one as parent. Every loader has its own search path of directories or jars, and the classes and resources
+ * looked for are in the last entry of the first loader, so a lookup through the last loader delegates through the
+ * whole chain.
+ * <p/>
+ * Howto run:
+ * <pre>
+ * mvn install
+ * mvn -f benchmarks/pom.xml package
+ * java -jar benchmarks/target/benchmarks.jar
+ * </pre>
+ *
+ * @author Ivo Woltring
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoaderBenchmark {
+
+    @Param({"dir", "jar"})
+    public String layout;
+
+    @Param({"1", "10", "500"})
+    public int entries;
+
+    @Param({"1", "2", "3"})
+    public int levels;
+
+    private File dir;
+    private IvoNetClassLoader[] loaders;
+    /* the first loader in the chain, holding the classes and resources looked for */
+    private IvoNetClassLoader owner;
+    /* the last loader in the chain */
+    private IvoNetClassLoader leaf;
+    private String hitClass;
+    private String missClass;
+    private String resource;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("LoaderBenchmark").toFile();
+        loaders = new IvoNetClassLoader[levels];
+        ClassLoader parent = null;
+        for (int level = 0; level < levels; level++) {
+            final URL[] urls = SyntheticClassPath.write(dir, "bench/l" + level, entries, "jar".equals(layout));
+            loaders[level] = new IvoNetClassLoader(urls, parent);
+            parent = loaders[level];
+        }
+        owner = loaders[0];
+        leaf = loaders[levels - 1];
+        final String pkg = "bench/l0/e" + (entries - 1) + "/";
+        hitClass = pkg.replace('/', '.') + "C0";
+        missClass = pkg.replace('/', '.') + "Missing";
+        resource = pkg + SyntheticClassPath.RESOURCE;
+        leaf.loadClass(hitClass);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (int level = levels - 1; level >= 0; level--) {
+            loaders[level].close();
+        }
+        SyntheticClassPath.delete(dir);
+    }
+
+    /**
+     * A class that was loaded before, asked for through the whole chain.
+     */
+    @Benchmark
+    public Class<?> loadClassHit() throws ClassNotFoundException {
+        return leaf.loadClass(hitClass);
+    }
+
+    /**
+     * A class that is not there, in a package that is.
+     */
+    @Benchmark
+    public Object loadClassMiss() {
+        try {
+            return leaf.loadClass(missClass);
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public URL findResource() {
+        return owner.findResource(resource);
+    }
+
+    /**
+     * The resource that is in every entry of the search path.
+     */
+    @Benchmark
+    public int findResources() throws IOException {
+        int count = 0;
+        final Enumeration<URL> urls = owner.findResources(SyntheticClassPath.SHARED);
+        while (urls.hasMoreElements()) {
+            urls.nextElement();
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int getResourceAsStream() throws IOException {
+        int total = 0;
+        try (InputStream in = leaf.getResourceAsStream(resource)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
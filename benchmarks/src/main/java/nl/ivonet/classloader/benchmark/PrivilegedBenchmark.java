@@ -0,0 +1,114 @@
+package nl.ivonet.classloader.benchmark;
+
+import nl.ivonet.classloader.trial.IvoNetClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups of the {@link IvoNetClassLoader} without a security manager, looked up directly (as the loader does)
+ * and privileged in the context of its creator (as it does with a security manager).
+ * <p/>
+ * The findResources benchmark enumerates a service file that is in every jar of the search path, as a service loader
+ * does: privileged, every URL of the enumeration is taken in an action of its own.
+ * <p/>
+ * Howto run:
+ * <pre>
+ * mvn install
+ * mvn -f benchmarks/pom.xml package
+ * java -jar benchmarks/target/benchmarks.jar PrivilegedBenchmark -prof gc
+ * </pre>
+ *
+ * @author Ivo Woltring
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrivilegedBenchmark {
+    private static final String ALWAYS_PRIVILEGED = "nl.ivonet.classloader.alwaysPrivileged";
+
+    @Param({"direct", "privileged"})
+    public String path;
+
+    @Param({"10", "500"})
+    public int entries;
+
+    private File dir;
+    private Loader loader;
+    private String missClass;
+    private String resource;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("PrivilegedBenchmark").toFile();
+        final URL[] urls = SyntheticClassPath.write(dir, "bench/p", entries, true);
+        System.setProperty(ALWAYS_PRIVILEGED, Boolean.toString("privileged".equals(path)));
+        loader = new Loader(urls);
+        final String pkg = "bench/p/e" + (entries - 1) + "/";
+        missClass = pkg.replace('/', '.') + "Missing";
+        resource = pkg + SyntheticClassPath.RESOURCE;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.clearProperty(ALWAYS_PRIVILEGED);
+        loader.close();
+        SyntheticClassPath.delete(dir);
+    }
+
+    /**
+     * A class that is not there, in a package that is, asked for on the search path only.
+     */
+    @Benchmark
+    public Class<?> findClassMiss() throws ClassNotFoundException {
+        return loader.find(missClass);
+    }
+
+    @Benchmark
+    public URL findResource() {
+        return loader.findResource(resource);
+    }
+
+    /**
+     * The service file that is in every jar of the search path.
+     */
+    @Benchmark
+    public int findResources() throws IOException {
+        int count = 0;
+        final Enumeration<URL> urls = loader.findResources(SyntheticClassPath.SHARED);
+        while (urls.hasMoreElements()) {
+            urls.nextElement();
+            count++;
+        }
+        return count;
+    }
+
+    private static final class Loader extends IvoNetClassLoader {
+        private Loader(final URL[] urls) {
+            super(urls, (ClassLoader) null);
+        }
+
+        private Class<?> find(final String name) throws ClassNotFoundException {
+            return tryFindClass(name);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package nl.ivonet.classloader.benchmark;
+
+import nl.ivonet.classloader.trial.ClassServer;
+import nl.ivonet.classloader.trial.IvoNetClassLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading all the classes of a package from the embedded {@link ClassServer}, with a fresh loader every time.
+ * <p/>
+ * Without a cache every class is fetched over a (kept alive) connection on the loopback address, with the on-disk
+ * cache the classes are fresh and read from disk, as after a restart. No network is needed for either.
+ *
+ * @author Ivo Woltring
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoteBenchmark {
+    private static final String REMOTE_CACHE = "nl.ivonet.classloader.remoteCache";
+
+    @Param({"none", "disk"})
+    public String cache;
+
+    private File dir;
+    private ClassServer server;
+    private URL[] urls;
+    private IvoNetClassLoader loader;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("RemoteBenchmark").toFile();
+        final File served = new File(SyntheticClassPath.write(dir, "bench/r", 1, false)[0].toURI());
+        server = ClassServer.start(served, 0, 3600);
+        urls = new URL[]{server.getURL()};
+        if ("disk".equals(cache)) {
+            System.setProperty(REMOTE_CACHE, new File(dir, "cache").getPath());
+        } else {
+            System.clearProperty(REMOTE_CACHE);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void newLoader() {
+        loader = new IvoNetClassLoader(urls, null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeLoader() throws IOException {
+        loader.close();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        System.clearProperty(REMOTE_CACHE);
+        SyntheticClassPath.delete(dir);
+    }
+
+    @Benchmark
+    public int loadPackage() throws ClassNotFoundException {
+        int hash = 0;
+        for (int c = 0; c < SyntheticClassPath.CLASSES_PER_ENTRY; c++) {
+            hash += loader.loadClass("bench.r.e0.C" + c).hashCode();
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,156 @@
+package nl.ivonet.classloader.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Writes a search path of generated classes and resources, so the benchmarks do not depend on anything on the box
+ * they run on.
+ * <p/>
+ * Every entry (a directory or a jar) holds its own package {@code <prefix>/e<i>/} with the classes {@code C0} up to
+ * {@code C9} and a {@link #RESOURCE} of 4KB. All entries hold the {@link #SHARED} resource as well.
+ *
+ * @author Ivo Woltring
+ */
+final class SyntheticClassPath {
+    static final int CLASSES_PER_ENTRY = 10;
+    static final String RESOURCE = "resource.txt";
+    static final String SHARED = "META-INF/benchmark.properties";
+
+    private static final int RESOURCE_SIZE = 4096;
+
+    private SyntheticClassPath() {
+    }
+
+    /**
+     * Writes the entries.
+     *
+     * @param dir     the directory to write the entries in
+     * @param prefix  the package path of the entries, e.g. {@code bench/l0}
+     * @param entries the number of entries
+     * @param jars    whether to write jars or directories
+     * @return the URLs of the entries in search path order
+     * @throws IOException if an entry could not be written
+     */
+    static URL[] write(final File dir, final String prefix, final int entries, final boolean jars)
+            throws IOException {
+        final URL[] urls = new URL[entries];
+        for (int i = 0; i < entries; i++) {
+            final String pkg = prefix + "/e" + i + "/";
+            final File entry = new File(dir, prefix.replace('/', '-') + "-e" + i + (jars ? ".jar" : ""));
+            if (jars) {
+                writeJar(entry, pkg);
+            } else {
+                writeDirectory(entry, pkg);
+            }
+            urls[i] = entry.toURI().toURL();
+        }
+        return urls;
+    }
+
+    private static void writeJar(final File file, final String pkg) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            for (int c = 0; c < CLASSES_PER_ENTRY; c++) {
+                final String name = pkg + "C" + c;
+                out.putNextEntry(new JarEntry(name + ".class"));
+                out.write(emptyClass(name));
+            }
+            out.putNextEntry(new JarEntry(pkg + RESOURCE));
+            out.write(resource());
+            out.putNextEntry(new JarEntry(SHARED));
+            out.write(pkg.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeDirectory(final File dir, final String pkg) throws IOException {
+        for (int c = 0; c < CLASSES_PER_ENTRY; c++) {
+            final String name = pkg + "C" + c;
+            writeFile(new File(dir, name + ".class"), emptyClass(name));
+        }
+        writeFile(new File(dir, pkg + RESOURCE), resource());
+        writeFile(new File(dir, SHARED), pkg.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeFile(final File file, final byte[] bytes) throws IOException {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] resource() {
+        final byte[] bytes = new byte[RESOURCE_SIZE];
+        Arrays.fill(bytes, (byte) 'x');
+        return bytes;
+    }
+
+    /*
+     * The class file of "public class <name> {}" without even a constructor.
+     */
+    private static byte[] emptyClass(final String name) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);           // minor version
+            out.writeShort(50);          // major version (Java 6, no stack map frames needed)
+            out.writeShort(5);           // constant pool count + 1
+            out.writeByte(7);            // #1 Class #2
+            out.writeShort(2);
+            out.writeByte(1);            // #2 Utf8 name
+            out.writeUTF(name);
+            out.writeByte(7);            // #3 Class #4
+            out.writeShort(4);
+            out.writeByte(1);            // #4 Utf8 java/lang/Object
+            out.writeUTF("java/lang/Object");
+            out.writeShort(0x0021);      // ACC_PUBLIC | ACC_SUPER
+            out.writeShort(1);           // this class
+            out.writeShort(3);           // super class
+            out.writeShort(0);           // interfaces
+            out.writeShort(0);           // fields
+            out.writeShort(0);           // methods
+            out.writeShort(0);           // attributes
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deletes a directory with everything in it.
+     *
+     * @param dir the directory to delete
+     * @throws IOException if something could not be deleted
+     */
+    static void delete(final File dir) throws IOException {
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path directory, final IOException exc)
+                    throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
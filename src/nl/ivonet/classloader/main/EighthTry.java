@@ -0,0 +1,120 @@
+package nl.ivonet.classloader.main;
+
+import nl.ivonet.classloader.trial.FatJar;
+import nl.ivonet.classloader.trial.IvoNetClassLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * This ClassLoader trial illustrates loading classes from the jars in a jar, as packaged by Spring Boot.
+ * <p/>
+ * Howto get it to work:
+ * <ul>
+ *     <li>Open a console in the ClassesNotOnClassPath folder of this project</li>
+ *     <li>perform command: javac ivonet/*.java</li>
+ *     <li>Run this class from the project folder (or give it the folder with the classes as argument)</li>
+ * </ul>
+ *
+ * The classes are put in a library jar, which is stored in BOOT-INF/lib of a fat jar in a temporary folder, next to a
+ * resource in BOOT-INF/classes. The IvoNetClassLoader gets the search path of the fat jar and reads the classes and
+ * the resource straight from it, without extracting anything. A URLClassLoader with the same search path can not read
+ * the library at all.
+ */
+public class EighthTry {
+
+    private static final String CLASSES_NOT_ON_CLASS_PATH = "ClassesNotOnClassPath";
+
+    public EighthTry(final File directory) throws Exception {
+        final File dir = Files.createTempDirectory("EighthTry").toFile();
+        try {
+            final File fatJar = new File(dir, "app.jar");
+            writeFatJar(fatJar, directory);
+            final URL[] urls = FatJar.classPath(fatJar);
+            System.out.println("Search path " + Arrays.toString(urls));
+
+            try (IvoNetClassLoader loader = new IvoNetClassLoader(urls)) {
+                final Class<?> ivoNet = loader.loadClass("ivonet.IvoNet");
+                System.out.println(ivoNet.newInstance() + " from " + ivoNet.getProtectionDomain().getCodeSource()
+                                                                           .getLocation());
+                System.out.println(loader.getResource("greeting.txt") + ": " + read(loader, "greeting.txt"));
+                System.out.println("Class file " + loader.getResource("ivonet/IvoNet.class"));
+            }
+
+            try (URLClassLoader loader = new URLClassLoader(urls, null)) {
+                loader.loadClass("ivonet.IvoNet");
+                System.out.println("The URLClassLoader found it as well");
+            } catch (ClassNotFoundException e) {
+                System.out.println("The URLClassLoader can not read the jar in the jar: " + e);
+            }
+        } finally {
+            TempFolders.delete(dir);
+        }
+    }
+
+    private static String read(final ClassLoader loader, final String name) throws IOException {
+        try (InputStream in = loader.getResourceAsStream(name)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void writeFatJar(final File fatJar, final File directory) throws IOException {
+        final ByteArrayOutputStream library = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(library)) {
+            final File[] classes = new File(directory, "ivonet").listFiles();
+            if (classes != null) {
+                for (final File file : classes) {
+                    if (file.getName().endsWith(".class")) {
+                        out.putNextEntry(new JarEntry("ivonet/" + file.getName()));
+                        out.write(Files.readAllBytes(file.toPath()));
+                        out.closeEntry();
+                    }
+                }
+            }
+        }
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(fatJar))) {
+            store(out, FatJar.CLASSES + "greeting.txt", "Hello from BOOT-INF/classes".getBytes(StandardCharsets.UTF_8));
+            store(out, FatJar.LIB + "ivonet.jar", library.toByteArray());
+        }
+    }
+
+    /*
+     * Libraries are stored uncompressed in a fat jar, which needs the size and
+     * checksum up front.
+     */
+    private static void store(final JarOutputStream out, final String name, final byte[] bytes) throws IOException {
+        final JarEntry entry = new JarEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.out.println("Eighth Try");
+        new EighthTry(new File((args.length > 0) ? args[0] : CLASSES_NOT_ON_CLASS_PATH));
+    }
+}
@@ -0,0 +1,70 @@
+package nl.ivonet.classloader.main;
+
+import nl.ivonet.classloader.trial.ClassServer;
+import nl.ivonet.classloader.trial.IvoNetClassLoader;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+
+/**
+ * This ClassLoader trial illustrates retrieving bytecode over a network and running it locally.
+ * <p/>
+ * Howto get it to work:
+ * <ul>
+ *     <li>Open a console in the ClassesNotOnClassPath folder of this project</li>
+ *     <li>perform command: javac ivonet/*.java</li>
+ *     <li>Run this class from the project folder (or give it the folder to serve as argument)</li>
+ * </ul>
+ *
+ * The folder is served by a tiny HTTP server on the loopback address and the IvoNetClassLoader gets the URL of that
+ * server on its search path. The first loader fetches the classes over HTTP and keeps them in a cache folder
+ * (-Dnl.ivonet.classloader.remoteCache, a temporary folder if not given). The second loader plays a restart: the
+ * classes are still fresh in the cache, so the server should not see a single request.
+ */
+public class FifthTry {
+
+    private static final String CLASSES_NOT_ON_CLASS_PATH = "ClassesNotOnClassPath";
+    private static final String REMOTE_CACHE = "nl.ivonet.classloader.remoteCache";
+    /* Seconds the classes may be used from the cache without asking the server */
+    private static final int MAX_AGE = 60;
+
+    public FifthTry(final File directory) throws Exception {
+        // only a cache folder made up here is deleted afterwards
+        final File cache = (System.getProperty(REMOTE_CACHE) == null)
+                           ? Files.createTempDirectory("FifthTry").toFile() : null;
+        if (cache != null) {
+            System.setProperty(REMOTE_CACHE, cache.toString());
+        }
+        System.out.println("Cache in " + System.getProperty(REMOTE_CACHE));
+        try (ClassServer server = ClassServer.start(directory, 0, MAX_AGE)) {
+            System.out.println("Serving " + directory.getAbsolutePath() + " on " + server.getURL());
+            load("Cold start", server);
+            load("Restart", server);
+        } finally {
+            if (cache != null) {
+                System.clearProperty(REMOTE_CACHE);
+                TempFolders.delete(cache);
+            }
+        }
+    }
+
+    private static void load(final String title, final ClassServer server) throws Exception {
+        final long requests = server.getRequests();
+        final int connections = server.getConnections();
+        final long t0 = System.nanoTime();
+        try (IvoNetClassLoader loader = new IvoNetClassLoader(new URL[]{server.getURL()})) {
+            final Object ivoNet = loader.loadClass("ivonet.IvoNet").newInstance();
+            final Object classInClass = loader.loadClass("ivonet.ClassInClass").newInstance();
+            System.out.println(ivoNet + " / " + classInClass);
+        }
+        System.out.printf("%s: %.1f ms, %d request(s) over %d new connection(s)%n", title,
+                          (System.nanoTime() - t0) / 1e6, server.getRequests() - requests,
+                          server.getConnections() - connections);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.out.println("Fifth Try");
+        new FifthTry(new File((args.length > 0) ? args[0] : CLASSES_NOT_ON_CLASS_PATH));
+    }
+}
@@ -0,0 +1,125 @@
+package nl.ivonet.classloader.main;
+
+import nl.ivonet.classloader.trial.IvoNetClassLoader;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This ClassLoader trial illustrates that the IvoNetClassLoader is parallel capable.
+ * <p/>
+ * Howto get it to work:
+ * <ul>
+ *     <li>Run this class</li>
+ *     <li>It writes a couple of thousand (empty) classes to a temporary folder</li>
+ *     <li>Then for 1 up to 64 threads a fresh IvoNetClassLoader is created and all the threads start loading
+ *     their own share of the classes at the same moment, like request threads hitting a cold plugin</li>
+ * </ul>
+ *
+ * If all goes well the number of classes loaded per millisecond should go up with the number of threads until
+ * you run out of cores. If the loader would not be parallel capable every loadClass would wait for the one
+ * lock on the loader and the numbers would stay (more or less) flat.
+ */
+public class FourthTry {
+
+    private static final int CLASSES_PER_THREAD = 64;
+    private static final int MAX_THREADS = 64;
+    private static final String PACKAGE = "ivonet/generated/";
+
+    public FourthTry() throws Exception {
+        final File dir = Files.createTempDirectory("FourthTry").toFile();
+        try {
+            final int total = CLASSES_PER_THREAD * MAX_THREADS;
+            for (int i = 0; i < total; i++) {
+                writeEmptyClass(dir, PACKAGE + "Generated" + i);
+            }
+            System.out.println("Wrote " + total + " classes to " + dir);
+
+            final URL url = dir.toURI().toURL();
+            for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+                final long nanos = loadAll(new IvoNetClassLoader(new URL[]{url}), threads, total);
+                System.out.printf("%2d thread(s): %5d classes in %6.1f ms = %6.1f classes/ms%n",
+                                  threads, total, nanos / 1e6, total / (nanos / 1e6));
+            }
+        } finally {
+            TempFolders.delete(dir);
+        }
+    }
+
+    /*
+     * Lets every thread load total / threads classes, all starting at the same time.
+     */
+    private static long loadAll(final IvoNetClassLoader loader, final int threads, final int total)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = first; i < total; i += threads) {
+                            loader.loadClass(PACKAGE.replace('/', '.') + "Generated" + i);
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        final long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long nanos = System.nanoTime() - t0;
+        loader.close();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return nanos;
+    }
+
+    /*
+     * Writes the class file of "public class <name> {}" without even a constructor.
+     */
+    private static void writeEmptyClass(final File dir, final String name) throws IOException {
+        final File file = new File(dir, name + ".class");
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);           // minor version
+            out.writeShort(50);          // major version (Java 6, no stack map frames needed)
+            out.writeShort(5);           // constant pool count + 1
+            out.writeByte(7);            // #1 Class #2
+            out.writeShort(2);
+            out.writeByte(1);            // #2 Utf8 name
+            out.writeUTF(name);
+            out.writeByte(7);            // #3 Class #4
+            out.writeShort(4);
+            out.writeByte(1);            // #4 Utf8 java/lang/Object
+            out.writeUTF("java/lang/Object");
+            out.writeShort(0x0021);      // ACC_PUBLIC | ACC_SUPER
+            out.writeShort(1);           // this class
+            out.writeShort(3);           // super class
+            out.writeShort(0);           // interfaces
+            out.writeShort(0);           // fields
+            out.writeShort(0);           // methods
+            out.writeShort(0);           // attributes
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.out.println("Fourth Try");
+        new FourthTry();
+    }
+}
@@ -0,0 +1,112 @@
+package nl.ivonet.classloader.main;
+
+import nl.ivonet.classloader.trial.HotReloader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This ClassLoader trial illustrates reloading changed classes without restarting the JVM.
+ * <p/>
+ * Howto get it to work:
+ * <ul>
+ *     <li>Run this class with a JDK (it compiles classes while it runs)</li>
+ *     <li>It writes and compiles three classes in a temporary folder: a Greeting, a Greeter that uses the Greeting
+ *     and an Untouched class</li>
+ *     <li>The folder is watched by a HotReloader and the classes are loaded through it</li>
+ *     <li>Then the Greeting is changed and compiled again, as an IDE would</li>
+ *     <li>A new generation is published: the Greeting and the Greeter that uses it are loaded again, the Untouched
+ *     class is still the one of the stable loader</li>
+ * </ul>
+ *
+ * Instead of deleting and compiling class files and running the trial again (see {@link SecondTry}), the change is
+ * picked up while running.
+ */
+public class SeventhTry {
+    private static final String PACKAGE = "ivonet/hot/";
+
+    public SeventhTry() throws Exception {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.out.println("No compiler, run this trial with a JDK");
+            return;
+        }
+        final File dir = Files.createTempDirectory("SeventhTry").toFile();
+        try {
+            write(dir, "Greeting", "public class Greeting { public String toString() { return \"Hello\"; } }");
+            write(dir, "Greeter",
+                  "public class Greeter { public String toString() { return new Greeting() + \"!\"; } }");
+            write(dir, "Untouched", "public class Untouched { }");
+            compile(compiler, dir, "Greeting", "Greeter", "Untouched");
+
+            try (HotReloader reloader = HotReloader.watch(new URL[]{dir.toURI().toURL()}, null)) {
+                final ClassLoader first = reloader.getLoader();
+                final Class<?> untouched = first.loadClass("ivonet.hot.Untouched");
+                System.out.println("Generation " + reloader.getGeneration() + ": "
+                                   + first.loadClass("ivonet.hot.Greeter").newInstance());
+
+                final CountDownLatch published = new CountDownLatch(1);
+                final long[] publishedAt = new long[1];
+                reloader.addListener(new HotReloader.Listener() {
+                    @Override
+                    public void published(final ClassLoader generation, final Set<String> reloaded) {
+                        publishedAt[0] = System.nanoTime();
+                        System.out.println("Reloaded " + reloaded);
+                        published.countDown();
+                    }
+                });
+                write(dir, "Greeting",
+                      "public class Greeting { public String toString() { return \"Hello again\"; } }");
+                compile(compiler, dir, "Greeting");
+                final long compiled = System.nanoTime();
+                if (!published.await(30, TimeUnit.SECONDS)) {
+                    System.out.println("No new generation, is the folder on a file system that can be watched?");
+                    return;
+                }
+                final ClassLoader second = reloader.getLoader();
+                System.out.printf("Generation %d published %.1f ms after compiling (%d ms of it debouncing)%n",
+                                  reloader.getGeneration(), (publishedAt[0] - compiled) / 1e6,
+                                  HotReloader.DEFAULT_DEBOUNCE_MILLIS);
+                System.out.println("Generation " + reloader.getGeneration() + ": "
+                                   + second.loadClass("ivonet.hot.Greeter").newInstance());
+                System.out.println("Untouched class shared: "
+                                   + (second.loadClass("ivonet.hot.Untouched") == untouched));
+            }
+        } finally {
+            TempFolders.delete(dir);
+        }
+    }
+
+    private static void write(final File dir, final String name, final String body) throws IOException {
+        final File file = new File(dir, PACKAGE + name + ".java");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), ("package ivonet.hot; " + body).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void compile(final JavaCompiler compiler, final File dir, final String... names) {
+        final String[] args = new String[names.length + 4];
+        args[0] = "-cp";
+        args[1] = dir.getPath();
+        args[2] = "-d";
+        args[3] = dir.getPath();
+        for (int i = 0; i < names.length; i++) {
+            args[i + 4] = new File(dir, PACKAGE + names[i] + ".java").getPath();
+        }
+        if (compiler.run(null, null, null, args) != 0) {
+            throw new IllegalStateException("Could not compile " + names.length + " classes");
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.out.println("Seventh Try");
+        new SeventhTry();
+    }
+}
@@ -0,0 +1,129 @@
+package nl.ivonet.classloader.main;
+
+import nl.ivonet.classloader.trial.ClassServer;
+import nl.ivonet.classloader.trial.IvoNetClassLoader;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+
+/**
+ * This ClassLoader trial illustrates what a round trip per class costs when loading over a network.
+ * <p/>
+ * Howto get it to work:
+ * <ul>
+ *     <li>Run this class (optionally with the latency of the server in milliseconds as argument)</li>
+ *     <li>It writes a class graph to a temporary folder: a chain of classes that each extend the previous one and
+ *     implement an interface of their own</li>
+ *     <li>The folder is served by the tiny HTTP server, which takes the latency to answer every request</li>
+ *     <li>A fresh IvoNetClassLoader loads the last class of the chain, which makes the JVM load the whole graph,
+ *     first from a server that only answers a GET per class and then from one that answers batches</li>
+ * </ul>
+ *
+ * Without batches every class is a round trip, one after the other, as the JVM only asks for the super class when
+ * the class itself is being defined. With batches the server sends the classes the one asked for refers to along
+ * with it, so the whole graph should come in a couple of round trips. Both are done twice, the first time includes
+ * warming up the JVM.
+ */
+public class SixthTry {
+
+    private static final int DEPTH = 32;
+    private static final int DEFAULT_LATENCY = 5;
+    private static final String PACKAGE = "ivonet/graph/";
+
+    public SixthTry(final int latency) throws Exception {
+        // cold means nothing cached on disk either
+        System.clearProperty("nl.ivonet.classloader.remoteCache");
+        final File dir = Files.createTempDirectory("SixthTry").toFile();
+        try {
+            writeGraph(dir);
+            System.out.println("Wrote a graph of " + (DEPTH * 2) + " classes to " + dir);
+            try (ClassServer server = ClassServer.start(dir, 0, 0)) {
+                server.setLatency(latency);
+                System.out.println("Serving on " + server.getURL() + " with " + latency + " ms latency");
+                for (int run = 0; run < 2; run++) {
+                    server.setBatch(false);
+                    load("A GET per class", server);
+                    server.setBatch(true);
+                    load("Batched       ", server);
+                }
+            }
+        } finally {
+            TempFolders.delete(dir);
+        }
+    }
+
+    private static void load(final String title, final ClassServer server) throws Exception {
+        final long requests = server.getRequests();
+        final long t0 = System.nanoTime();
+        try (IvoNetClassLoader loader = new IvoNetClassLoader(new URL[]{server.getURL()}, null)) {
+            loader.loadClass(PACKAGE.replace('/', '.') + "C" + (DEPTH - 1));
+        }
+        final long roundTrips = server.getRequests() - requests;
+        final double millis = (System.nanoTime() - t0) / 1e6;
+        System.out.printf("%s: %3d round trips in %7.1f ms = %5.2f ms per round trip%n", title, roundTrips, millis,
+                          millis / roundTrips);
+    }
+
+    /*
+     * C0 extends Object implements I0, Ci extends C(i-1) implements Ii.
+     */
+    private static void writeGraph(final File dir) throws IOException {
+        for (int i = 0; i < DEPTH; i++) {
+            // ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT
+            writeClass(dir, PACKAGE + "I" + i, "java/lang/Object", null, 0x0601);
+            // ACC_PUBLIC | ACC_SUPER
+            writeClass(dir, PACKAGE + "C" + i, (i == 0) ? "java/lang/Object" : (PACKAGE + "C" + (i - 1)),
+                       PACKAGE + "I" + i, 0x0021);
+        }
+    }
+
+    /*
+     * Writes the class file of a class without members.
+     */
+    private static void writeClass(final File dir, final String name, final String superName, final String iface,
+                                   final int access) throws IOException {
+        final File file = new File(dir, name + ".class");
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);           // minor version
+            out.writeShort(50);          // major version (Java 6, no stack map frames needed)
+            out.writeShort((iface == null) ? 5 : 7); // constant pool count + 1
+            out.writeByte(7);            // #1 Class #2
+            out.writeShort(2);
+            out.writeByte(1);            // #2 Utf8 name
+            out.writeUTF(name);
+            out.writeByte(7);            // #3 Class #4
+            out.writeShort(4);
+            out.writeByte(1);            // #4 Utf8 super name
+            out.writeUTF(superName);
+            if (iface != null) {
+                out.writeByte(7);        // #5 Class #6
+                out.writeShort(6);
+                out.writeByte(1);        // #6 Utf8 interface name
+                out.writeUTF(iface);
+            }
+            out.writeShort(access);
+            out.writeShort(1);           // this class
+            out.writeShort(3);           // super class
+            if (iface == null) {
+                out.writeShort(0);       // interfaces
+            } else {
+                out.writeShort(1);
+                out.writeShort(5);
+            }
+            out.writeShort(0);           // fields
+            out.writeShort(0);           // methods
+            out.writeShort(0);           // attributes
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.out.println("Sixth Try");
+        new SixthTry((args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_LATENCY);
+    }
+}
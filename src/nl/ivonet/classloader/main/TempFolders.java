@@ -0,0 +1,47 @@
+package nl.ivonet.classloader.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Cleans up the temporary folders the trials write their classes and jars to.
+ */
+final class TempFolders {
+
+    private TempFolders() {
+    }
+
+    /**
+     * Deletes a folder and everything in it. Symbolic links are deleted, not followed. What can not be deleted is
+     * reported and left behind.
+     *
+     * @param dir the folder to delete
+     */
+    static void delete(final File dir) {
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path path, final IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    Files.delete(path);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Could not delete " + dir + ": " + e);
+        }
+    }
+}
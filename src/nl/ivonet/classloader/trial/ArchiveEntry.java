@@ -0,0 +1,148 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+import sun.net.www.ParseUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * A {@link ClassPathEntry} serving a jar or directory from a {@link ClassArchive}.
+ * <p/>
+ * The URLs handed out are the ones the jar or directory itself would give, the contents are read from the mapped
+ * archive.
+ *
+ * @author Ivo Woltring
+ */
+final class ArchiveEntry extends ClassPathEntry {
+    private final ClassArchive.Source source;
+    /* jar:<url>!/ for a jar, the URL itself for a directory */
+    private final URL baseURL;
+    private final Set<String> packagePaths;
+    private final Manifest manifest;
+
+    ArchiveEntry(final URL url, final ClassArchive.Source source) throws IOException {
+        super(url);
+        this.source = source;
+        baseURL = source.isJar() ? new URL("jar", "", -1, url + "!/") : url;
+        packagePaths = source.packagePaths();
+        final String manifestName = source.isJar() ? source.find(JarFile.MANIFEST_NAME) : null;
+        manifest = (manifestName == null) ? null : new Manifest(new ByteArrayInputStream(bytes(manifestName)));
+    }
+
+    @Override
+    Set<String> getPackagePaths() {
+        return packagePaths;
+    }
+
+    @Override
+    Set<String> getClassPackagePaths() {
+        return source.classPackagePaths();
+    }
+
+    @Override
+    Resource getResource(final String name, final boolean check) {
+        final String found = source.find(name);
+        if (found == null) {
+            return null;
+        }
+        final URL url = resourceURL(name, check);
+        return (url == null) ? null : new ArchiveResource(found, url);
+    }
+
+    @Override
+    URL findResource(final String name, final boolean check) {
+        return (source.find(name) == null) ? null : resourceURL(name, check);
+    }
+
+    @Override
+    Enumeration<URL> findResources(final String name, final boolean check) {
+        final URL url = findResource(name, check);
+        return (url == null) ? Collections.<URL>emptyEnumeration()
+                             : Collections.enumeration(Collections.singleton(url));
+    }
+
+    /*
+     * Like the URLClassPath the URL is made with the name asked for, which
+     * may lack the trailing '/' of a directory.
+     */
+    private URL resourceURL(final String name, final boolean check) {
+        try {
+            final URL url = new URL(baseURL, ParseUtil.encodePath(name, false));
+            return check ? ClassPathIndex.check(url) : url;
+        } catch (MalformedURLException ignored) {
+            return null;
+        }
+    }
+
+    private byte[] bytes(final String name) {
+        final ByteBuffer slice = source.slice(name);
+        final byte[] bytes = new byte[slice.remaining()];
+        slice.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        // the archive is shared, nothing to close per entry
+    }
+
+    private final class ArchiveResource extends Resource {
+        private final String name;
+        private final URL url;
+
+        private ArchiveResource(final String name, final URL url) {
+            this.name = name;
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public URL getURL() {
+            return url;
+        }
+
+        @Override
+        public URL getCodeSourceURL() {
+            return ArchiveEntry.this.getURL();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(bytes(name));
+        }
+
+        @Override
+        public int getContentLength() {
+            return source.slice(name).remaining();
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return bytes(name);
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return source.slice(name);
+        }
+
+        @Override
+        public Manifest getManifest() {
+            return manifest;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package nl.ivonet.classloader.trial;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+/**
+ * Looks classes up in the bootstrap class loader, like a class loader without a parent does.
+ * <p/>
+ * {@code Class.forName(name, false, null)} checks the getClassLoader permission of its caller when a security manager
+ * is installed, and creates a new exception with a stack trace for every class it can not find. This loader has no
+ * parent, so its {@code loadClass} asks the bootstrap loader directly, and it never defines a class itself: a miss
+ * throws one shared exception that is caught right here.
+ *
+ * @author Ivo Woltring
+ */
+final class BootstrapProbe extends ClassLoader {
+    private static final ClassNotFoundException MISS = new StacklessClassNotFoundException("not a bootstrap class");
+    private static final BootstrapProbe INSTANCE = AccessController.doPrivileged(
+            new PrivilegedAction<BootstrapProbe>() {
+                @Override
+                public BootstrapProbe run() {
+                    return new BootstrapProbe();
+                }
+            });
+
+    private BootstrapProbe() {
+        super(null);
+    }
+
+    /**
+     * @param name the binary name of the class
+     * @return the class or {@code null} if the bootstrap loader does not have it
+     */
+    static Class<?> find(final String name) {
+        try {
+            return INSTANCE.loadClass(name, false);
+        } catch (ClassNotFoundException ignored) {
+            return null;
+        }
+    }
+
+    /*
+     * Nothing is defined here, so there is nothing to lock: the name keeps
+     * the lookups of other names from waiting.
+     */
+    @Override
+    protected Object getClassLoadingLock(final String className) {
+        return className;
+    }
+
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        throw MISS;
+    }
+}
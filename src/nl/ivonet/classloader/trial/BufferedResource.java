@@ -0,0 +1,88 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.CodeSigner;
+import java.security.cert.Certificate;
+import java.util.jar.Manifest;
+
+/**
+ * A {@link Resource} of which the bytes have already been read.
+ * <p/>
+ * Used to hand bytes read ahead of time (on another thread) to the define path of the loader. The code signers of a
+ * jar entry are only known after its bytes have been read, which has already happened here.
+ *
+ * @author Ivo Woltring
+ */
+final class BufferedResource extends Resource {
+    private final Resource resource;
+    private final byte[] bytes;
+
+    private BufferedResource(final Resource resource, final byte[] bytes) {
+        this.resource = resource;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Reads all the bytes of the given resource.
+     *
+     * @param resource the resource to read
+     * @return the resource with its bytes in memory
+     * @throws IOException if the resource could not be read
+     */
+    static BufferedResource read(final Resource resource) throws IOException {
+        if (resource instanceof BufferedResource) {
+            return (BufferedResource) resource;
+        }
+        return new BufferedResource(resource, resource.getBytes());
+    }
+
+    @Override
+    public String getName() {
+        return resource.getName();
+    }
+
+    @Override
+    public URL getURL() {
+        return resource.getURL();
+    }
+
+    @Override
+    public URL getCodeSourceURL() {
+        return resource.getCodeSourceURL();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public int getContentLength() {
+        return bytes.length;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+        return resource.getManifest();
+    }
+
+    @Override
+    public Certificate[] getCertificates() {
+        return resource.getCertificates();
+    }
+
+    @Override
+    public CodeSigner[] getCodeSigners() {
+        return resource.getCodeSigners();
+    }
+}
@@ -0,0 +1,447 @@
+package nl.ivonet.classloader.trial;
+
+import sun.net.www.ParseUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A single file holding the uncompressed classes and resources of the local jars and directories of a search path,
+ * to start up without opening, indexing and inflating all the jars again.
+ * <p/>
+ * The archive is built once by {@link #write(URL[], File)} (or from the command line by the {@link #main(String[])}
+ * method) for the URLs of a loader. A loader created with an opened archive serves the URLs that are in the archive
+ * from the memory mapped archive file. Every URL is validated before it is used: a jar by its size and modification
+ * time or, if those differ, its SHA-256 hash; a directory by a hash over the names, sizes and modification times of
+ * its files. Stale or missing URLs are read the normal way.
+ * <p/>
+ * The archive is mapped read only and replaced atomically when it is written again, so any number of JVMs on a host
+ * can share it (and the page cache holding it).
+ *
+ * @author Ivo Woltring
+ */
+public final class ClassArchive implements Closeable {
+    private static final int MAGIC = 0x49564341; // IVCA
+    private static final int VERSION = 1;
+    private static final byte JAR = 0;
+    private static final byte DIRECTORY = 1;
+
+    private final File file;
+    private final Map<String, Source> sources;
+
+    private ClassArchive(final File file, final Map<String, Source> sources) {
+        this.file = file;
+        this.sources = sources;
+    }
+
+    /**
+     * Opens (maps) an archive written by {@link #write(URL[], File)}.
+     *
+     * @param file the archive file
+     * @return the archive
+     * @throws IOException if the file could not be read or is not an archive
+     */
+    public static ClassArchive open(final File file) throws IOException {
+        final ByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive too large: " + file);
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if ((map.getInt() != MAGIC) || (map.getInt() != VERSION)) {
+            throw new IOException("Not a class archive (or an unsupported version): " + file);
+        }
+        final int count = map.getInt();
+        final List<Source> read = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String url = readString(map);
+            final byte kind = map.get();
+            final long size = map.getLong();
+            final long lastModified = map.getLong();
+            final byte[] digest = new byte[map.getInt()];
+            map.get(digest);
+            final int entryCount = map.getInt();
+            final Map<String, int[]> entries = new HashMap<>(entryCount * 2);
+            for (int e = 0; e < entryCount; e++) {
+                final String name = readString(map);
+                entries.put(name, new int[]{map.getInt(), map.getInt()});
+            }
+            read.add(new Source(url, kind, size, lastModified, digest, entries));
+        }
+        // the data follows the header, entry offsets are relative to it
+        final ByteBuffer data = map.slice();
+        final Map<String, Source> sources = new HashMap<>();
+        for (final Source source : read) {
+            source.data = data;
+            sources.put(source.url, source);
+        }
+        return new ClassArchive(file, sources);
+    }
+
+    /**
+     * Writes an archive holding all the classes and resources of the local jars and directories among the given URLs.
+     * Jars that can not be mapped (signed jars, jars with a Class-Path, ...) and remote URLs are left out.
+     *
+     * @param urls the search path of a loader
+     * @param file the archive file to (over)write
+     * @throws IOException if a URL or the archive could not be read or written
+     */
+    public static void write(final URL[] urls, final File file) throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File data = File.createTempFile(file.getName(), ".data", dir);
+        final File header = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            final List<Source> sources = new ArrayList<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data)))) {
+                for (final URL url : urls) {
+                    final Source source = writeSource(url, out);
+                    if (source != null) {
+                        sources.add(source);
+                    }
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(header)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sources.size());
+                for (final Source source : sources) {
+                    writeString(out, source.url);
+                    out.writeByte(source.kind);
+                    out.writeLong(source.size);
+                    out.writeLong(source.lastModified);
+                    out.writeInt(source.digest.length);
+                    out.write(source.digest);
+                    out.writeInt(source.entries.size());
+                    for (final Map.Entry<String, int[]> entry : source.entries.entrySet()) {
+                        writeString(out, entry.getKey());
+                        out.writeInt(entry.getValue()[0]);
+                        out.writeInt(entry.getValue()[1]);
+                    }
+                }
+                Files.copy(data.toPath(), out);
+            }
+            // readers either see the old or the new archive, never half of it
+            Files.move(header.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(data.toPath());
+            Files.deleteIfExists(header.toPath());
+        }
+    }
+
+    /*
+     * Appends the contents of a URL to the data and returns its source,
+     * or null if the URL can not be archived.
+     */
+    private static Source writeSource(final URL url, final DataOutputStream out) throws IOException {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        final File file = new File(ParseUtil.decode(url.getFile().replace('/', File.separatorChar)));
+        final Map<String, int[]> entries = new TreeMap<>();
+        if (url.getFile().endsWith("/")) {
+            if (!file.isDirectory()) {
+                return null;
+            }
+            final Path root = file.toPath();
+            for (final Path path : listFiles(root)) {
+                final String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                if (Files.isDirectory(path)) {
+                    entries.put(name + '/', new int[]{out.size(), 0});
+                } else {
+                    final byte[] bytes = Files.readAllBytes(path);
+                    entries.put(name, new int[]{out.size(), bytes.length});
+                    out.write(bytes);
+                }
+                checkSize(out);
+            }
+            return new Source(url.toExternalForm(), DIRECTORY, 0, 0, directoryDigest(root), entries);
+        }
+        final MappedJarFile jar = (MappedJarEntry.localJar(url) == null) ? null : MappedJarFile.open(file);
+        if (jar == null) {
+            return null;
+        }
+        for (final MappedJarFile.Entry entry : jar.getEntries()) {
+            final byte[] bytes = jar.readBytes(entry);
+            entries.put(entry.getName(), new int[]{out.size(), bytes.length});
+            out.write(bytes);
+            checkSize(out);
+        }
+        return new Source(url.toExternalForm(), JAR, file.length(), file.lastModified(), fileDigest(file), entries);
+    }
+
+    private static void checkSize(final DataOutputStream out) throws IOException {
+        // DataOutputStream.size() sticks at Integer.MAX_VALUE
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Archive data exceeds 2GB");
+        }
+    }
+
+    /*
+     * All files and directories below the root (not the root itself) in name order.
+     */
+    private static List<Path> listFiles(final Path root) throws IOException {
+        final List<Path> result = new ArrayList<>();
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                           new SimpleFileVisitor<Path>() {
+                               @Override
+                               public FileVisitResult preVisitDirectory(final Path dir,
+                                                                        final BasicFileAttributes attrs) {
+                                   if (!dir.equals(root)) {
+                                       result.add(dir);
+                                   }
+                                   return FileVisitResult.CONTINUE;
+                               }
+
+                               @Override
+                               public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                                   result.add(file);
+                                   return FileVisitResult.CONTINUE;
+                               }
+
+                               @Override
+                               public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                                   return FileVisitResult.CONTINUE;
+                               }
+                           });
+        Collections.sort(result);
+        return result;
+    }
+
+    private static byte[] fileDigest(final File file) throws IOException {
+        final MessageDigest digest = sha256();
+        final byte[] buffer = new byte[65536];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] directoryDigest(final Path root) throws IOException {
+        final MessageDigest digest = sha256();
+        final ByteBuffer numbers = ByteBuffer.allocate(16);
+        for (final Path path : listFiles(root)) {
+            digest.update(root.relativize(path).toString().getBytes(StandardCharsets.UTF_8));
+            final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            numbers.clear();
+            numbers.putLong(attrs.isDirectory() ? -1 : attrs.size()).putLong(attrs.lastModifiedTime().toMillis());
+            digest.update(numbers.array());
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns an entry serving the given URL from this archive.
+     *
+     * @param url the URL on the search path
+     * @return the entry or {@code null} if the URL is not in the archive or its contents changed
+     */
+    ClassPathEntry entryFor(final URL url) {
+        final Source source = sources.get(url.toExternalForm());
+        if ((source == null) || !source.isValid()) {
+            return null;
+        }
+        try {
+            return new ArchiveEntry(url, source);
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the archive file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Nothing to close, the mapping is released when the archive is garbage collected as loaders may still use it.
+     */
+    @Override
+    public void close() {
+        // see javadoc
+    }
+
+    /**
+     * Writes an archive for a search path.
+     * <p/>
+     * Usage: {@code ClassArchive <archive file> <url>...}
+     *
+     * @param args the archive file followed by the URLs of the search path
+     * @throws IOException if the archive could not be written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ClassArchive <archive file> <url>...");
+            return;
+        }
+        final URL[] urls = new URL[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            urls[i - 1] = new URL(args[i]);
+        }
+        write(urls, new File(args[0]));
+        System.out.println("Wrote " + args[0]);
+    }
+
+    /**
+     * One URL of the search path in the archive.
+     */
+    static final class Source {
+        private final String url;
+        private final byte kind;
+        private final long size;
+        private final long lastModified;
+        private final byte[] digest;
+        /* Name -> offset and length in the data */
+        private final Map<String, int[]> entries;
+        private ByteBuffer data;
+        /* Validated on first use */
+        private volatile Boolean valid;
+
+        private Source(final String url, final byte kind, final long size, final long lastModified,
+                       final byte[] digest, final Map<String, int[]> entries) {
+            this.url = url;
+            this.kind = kind;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.entries = entries;
+        }
+
+        private boolean isValid() {
+            Boolean result = valid;
+            if (result == null) {
+                result = validate();
+                valid = result;
+            }
+            return result;
+        }
+
+        private boolean validate() {
+            try {
+                final File file = new File(ParseUtil.decode(new URL(url).getFile().replace('/', File.separatorChar)));
+                if (kind == DIRECTORY) {
+                    return file.isDirectory() && Arrays.equals(digest, directoryDigest(file.toPath()));
+                }
+                if (!file.isFile() || (file.length() != size)) {
+                    return false;
+                }
+                return (file.lastModified() == lastModified) || Arrays.equals(digest, fileDigest(file));
+            } catch (IOException ignored) {
+                return false;
+            }
+        }
+
+        /**
+         * @return true if the URL was a jar, false for a directory
+         */
+        boolean isJar() {
+            return kind == JAR;
+        }
+
+        /**
+         * @return the package paths of all the entries
+         */
+        Set<String> packagePaths() {
+            final Set<String> paths = new HashSet<>();
+            paths.add("");
+            for (final String name : entries.keySet()) {
+                ClassPathIndex.addPackagePaths(paths, name);
+            }
+            return Collections.unmodifiableSet(paths);
+        }
+
+        /**
+         * @return the package paths of the class files
+         */
+        Set<String> classPackagePaths() {
+            final Set<String> paths = new HashSet<>();
+            for (final String name : entries.keySet()) {
+                ClassPathIndex.addClassPackagePath(paths, name);
+            }
+            return Collections.unmodifiableSet(paths);
+        }
+
+        /**
+         * Finds an entry by name, a directory is also found without its trailing '/'.
+         *
+         * @param name the entry name
+         * @return the name of the entry found or {@code null}
+         */
+        String find(final String name) {
+            if (entries.containsKey(name)) {
+                return name;
+            }
+            if (!name.endsWith("/") && entries.containsKey(name + '/')) {
+                return name + '/';
+            }
+            return null;
+        }
+
+        /**
+         * @param name the name of an entry found by {@link #find(String)}
+         * @return the contents of the entry as a slice of the mapped archive
+         */
+        ByteBuffer slice(final String name) {
+            final int[] location = entries.get(name);
+            final ByteBuffer slice = data.duplicate();
+            slice.limit(location[0] + location[1]).position(location[0]);
+            return slice.slice();
+        }
+    }
+}
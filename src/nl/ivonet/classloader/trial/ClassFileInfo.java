@@ -0,0 +1,218 @@
+package nl.ivonet.classloader.trial;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The names a class file refers to in its header: its own name, its super class and its interfaces, and all the
+ * other classes named in its constant pool.
+ * <p/>
+ * Only the constant pool is walked to get to these, nothing else of the class file is read. Names are returned as
+ * binary names ({@code java.lang.Object}) like {@link ClassLoader#loadClass(String)} expects them.
+ *
+ * @author Ivo Woltring
+ */
+final class ClassFileInfo {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final List<String> referenced;
+
+    private ClassFileInfo(final String name, final String superName, final List<String> interfaces,
+                          final List<String> referenced) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.referenced = referenced;
+    }
+
+    /**
+     * Parses the header of a class file.
+     *
+     * @param bytes the class file
+     * @return the names found in the header
+     * @throws IllegalArgumentException if the bytes are not a class file
+     */
+    static ClassFileInfo parse(final byte[] bytes) {
+        return parse(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Parses the header of the class file between the position and the limit of a buffer, like the bytes of a mapped
+     * jar entry. The position of the buffer is left as it is.
+     *
+     * @param classFile the class file
+     * @return the names found in the header
+     * @throws IllegalArgumentException if the bytes are not a class file
+     */
+    static ClassFileInfo parse(final ByteBuffer classFile) {
+        try {
+            // buffer is read in order, bytes at the absolute offsets of the constants
+            final ByteBuffer bytes = classFile.slice();
+            final ByteBuffer buffer = bytes.duplicate();
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a class file");
+            }
+            buffer.position(8);
+            final int count = buffer.getShort() & 0xFFFF;
+            // offset of every constant, the class constants point to their Utf8 constant
+            final int[] offsets = new int[count];
+            int classes = 0;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = buffer.position();
+                final int tag = buffer.get();
+                switch (tag) {
+                    case 1: // Utf8
+                        final int length = buffer.getShort() & 0xFFFF;
+                        buffer.position(buffer.position() + length);
+                        break;
+                    case 7: // Class
+                        classes++;
+                        buffer.position(buffer.position() + 2);
+                        break;
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        buffer.position(buffer.position() + 2);
+                        break;
+                    case 15: // MethodHandle
+                        buffer.position(buffer.position() + 3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        buffer.position(buffer.position() + 4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        buffer.position(buffer.position() + 8);
+                        i++;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at " + i);
+                }
+            }
+            buffer.getShort(); // access flags
+            final String name = className(bytes, offsets, buffer.getShort() & 0xFFFF);
+            final String superName = className(bytes, offsets, buffer.getShort() & 0xFFFF);
+            final String[] interfaces = new String[buffer.getShort() & 0xFFFF];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = className(bytes, offsets, buffer.getShort() & 0xFFFF);
+            }
+            return new ClassFileInfo(name, superName, Collections.unmodifiableList(Arrays.asList(interfaces)),
+                                     referenced(bytes, offsets, classes, name));
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed class file", e);
+        }
+    }
+
+    /*
+     * Returns the binary names of all the Class constants but the class
+     * itself, arrays of classes as their element class, in pool order.
+     */
+    private static List<String> referenced(final ByteBuffer bytes, final int[] offsets, final int classes,
+                                           final String self) {
+        final Set<String> names = new LinkedHashSet<>(classes * 2);
+        for (int i = 1; i < offsets.length; i++) {
+            if ((offsets[i] == 0) || (bytes.get(offsets[i]) != 7)) {
+                continue;
+            }
+            String referenced = className(bytes, offsets, i);
+            if (referenced.startsWith("[")) {
+                final int element = referenced.lastIndexOf('[') + 1;
+                if (referenced.charAt(element) != 'L') {
+                    continue; // an array of primitives
+                }
+                referenced = referenced.substring(element + 1, referenced.length() - 1);
+            }
+            if (!referenced.equals(self)) {
+                names.add(referenced);
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(names));
+    }
+
+    /*
+     * Returns the binary name of the Class constant at the given index or
+     * null for index 0 (the super class of java.lang.Object).
+     */
+    static String className(final ByteBuffer bytes, final int[] offsets, final int index) {
+        if (index == 0) {
+            return null;
+        }
+        final int classOffset = offsets[index];
+        if (bytes.get(classOffset) != 7) {
+            throw new IllegalArgumentException("Constant " + index + " is not a class");
+        }
+        return utf8(bytes, offsets[bytes.getShort(classOffset + 1) & 0xFFFF])
+                .replace('/', '.');
+    }
+
+    /*
+     * Decodes the (modified UTF-8) Utf8 constant at the given offset.
+     */
+    static String utf8(final ByteBuffer bytes, final int offset) {
+        if (bytes.get(offset) != 1) {
+            throw new IllegalArgumentException("Constant at " + offset + " is not Utf8");
+        }
+        final int length = bytes.getShort(offset + 1) & 0xFFFF;
+        final char[] chars = new char[length];
+        int count = 0;
+        int i = offset + 3;
+        final int end = i + length;
+        while (i < end) {
+            final int b = bytes.get(i++) & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes.get(i++) & 0x3F));
+            } else {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes.get(i++) & 0x3F) << 6) | (bytes.get(i++) & 0x3F));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * @return the binary name of the class
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the binary name of the super class or {@code null} for {@code java.lang.Object}
+     */
+    String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * @return the binary names of the directly implemented interfaces
+     */
+    List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * @return the binary names of all the classes named in the constant pool (including the super class and the
+     *         interfaces) but the class itself
+     */
+    List<String> getReferenced() {
+        return referenced;
+    }
+}
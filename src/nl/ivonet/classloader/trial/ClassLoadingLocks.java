@@ -0,0 +1,67 @@
+package nl.ivonet.classloader.trial;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A table of per class name lock objects for parallel capable class loaders.
+ * <p/>
+ * The {@link ClassLoader} itself keeps a lock object for every class name it was ever asked for, so with a lot of
+ * (missing) names that map only grows. Here the locks are only weakly referenced: a lock stays in the table as long as
+ * a thread holds or waits for it and is expunged after it has been garbage collected. A new lock for the same name is
+ * fine at that point as nobody is synchronizing on the old one anymore.
+ * <p/>
+ * Striping a fixed set of locks over the names would bound the table as well, but a thread holding the lock of one
+ * class while its super class is loaded could then deadlock with a thread doing the same for two other classes that
+ * happen to share the stripes.
+ *
+ * @author Ivo Woltring
+ */
+final class ClassLoadingLocks {
+    private final ConcurrentMap<String, LockReference> locks = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * Returns the lock object for the given class name. As long as the caller holds on to the returned object, every
+     * other caller asking for the same name gets the same object.
+     *
+     * @param className the name of the class to be loaded
+     * @return the lock object to synchronize on
+     */
+    Object get(final String className) {
+        expunge();
+        for (; ; ) {
+            final LockReference reference = locks.get(className);
+            if (reference != null) {
+                final Object lock = reference.get();
+                if (lock != null) {
+                    return lock;
+                }
+            }
+            final Object lock = new Object();
+            final LockReference fresh = new LockReference(className, lock, queue);
+            if ((reference == null) ? (locks.putIfAbsent(className, fresh) == null)
+                                    : locks.replace(className, reference, fresh)) {
+                return lock;
+            }
+        }
+    }
+
+    private void expunge() {
+        LockReference reference;
+        while ((reference = (LockReference) queue.poll()) != null) {
+            locks.remove(reference.className, reference);
+        }
+    }
+
+    private static final class LockReference extends WeakReference<Object> {
+        private final String className;
+
+        private LockReference(final String className, final Object lock, final ReferenceQueue<Object> queue) {
+            super(lock, queue);
+            this.className = className;
+        }
+    }
+}
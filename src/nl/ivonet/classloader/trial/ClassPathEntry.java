@@ -0,0 +1,95 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Set;
+
+/**
+ * A single element of the search path of a {@link ClassPathIndex}.
+ * <p/>
+ * An entry knows which package paths it can serve (the '/' separated directory part of a resource name, {@code ""}
+ * for the root) so the index only has to ask the entries that can possibly contain a name. Entries that can not
+ * tell beforehand what they contain (remote URLs, directories, jars with a Class-Path manifest attribute, ...)
+ * return {@code null} from {@link #getPackagePaths()} and will be asked for every name.
+ *
+ * @author Ivo Woltring
+ */
+abstract class ClassPathEntry implements Closeable {
+    /* The URL this entry was created for */
+    private final URL url;
+
+    ClassPathEntry(final URL url) {
+        this.url = url;
+    }
+
+    /**
+     * @return the URL this entry was created for
+     */
+    URL getURL() {
+        return url;
+    }
+
+    /**
+     * @return the package paths this entry can serve resources from or {@code null} if that is not known
+     */
+    abstract Set<String> getPackagePaths();
+
+    /**
+     * Lists the package paths this entry has class files in: unlike {@link #getPackagePaths()} without the paths that
+     * only hold resources or other packages. Returns {@code null} by default.
+     *
+     * @return the package paths with class files or {@code null} if that is not known
+     */
+    Set<String> getClassPackagePaths() {
+        return null;
+    }
+
+    /**
+     * Returns the jar this entry keeps mapped through the {@link JarRegistry}: {@code null} by default.
+     *
+     * @return the mapped jar or {@code null} if the entry does not map one
+     */
+    MappedJarFile getMappedJar() {
+        return null;
+    }
+
+    /**
+     * Finds the resource with the given name in this entry.
+     *
+     * @param name  the '/' separated name of the resource
+     * @param check whether to perform a security check on the resulting URL
+     * @return the resource or {@code null} if it is not in this entry
+     */
+    abstract Resource getResource(String name, boolean check);
+
+    /**
+     * Finds the URL of the resource with the given name in this entry.
+     *
+     * @param name  the '/' separated name of the resource
+     * @param check whether to perform a security check on the resulting URL
+     * @return the URL or {@code null} if the resource is not in this entry
+     */
+    abstract URL findResource(String name, boolean check);
+
+    /**
+     * Finds all the URLs of the resources with the given name in this entry.
+     *
+     * @param name  the '/' separated name of the resource
+     * @param check whether to perform a security check on the resulting URLs
+     * @return the URLs found, never {@code null}
+     */
+    abstract Enumeration<URL> findResources(String name, boolean check);
+
+    /**
+     * Tells the entry the resources that will be asked for soon, so an entry that fetches them can ask for them
+     * together. Does nothing by default.
+     *
+     * @param names the '/' separated names of the resources
+     */
+    void expect(final Collection<String> names) {
+    }
+}
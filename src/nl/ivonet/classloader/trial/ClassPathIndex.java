@@ -0,0 +1,467 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+import sun.misc.URLClassPath;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLStreamHandlerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The search path of URLs for classes and resources, indexed by package.
+ * <p/>
+ * Every URL gets its own {@link ClassPathEntry}: local jars are memory mapped ({@link MappedJarEntry}) when possible,
+ * anything else is read by a {@link URLClassPath} of its own ({@link URLClassPathEntry}). Local signed jars are mapped
+ * too if a {@link SignerCache} is configured ({@link SignedJarEntry}). The jars and directories in a local jar, like
+ * those of a fat jar, are read from the mapping of that jar ({@link NestedJarEntry}). Directories on HTTP servers are
+ * fetched from by a {@link RemoteEntry}. URLs that are in a valid {@link ClassArchive} are served from the archive
+ * instead ({@link ArchiveEntry}). When an entry is added, the package paths it contains are added to a
+ * package-to-entries map so a lookup only visits the entries that can contain the name instead of probing every URL on
+ * the search path. Entries that can not be indexed, like local directories that can get new packages at any time, are
+ * visited for every lookup. The order of the URLs is preserved for every package so the first entry found is the same
+ * one a plain {@link URLClassPath} would find.
+ * <p/>
+ * Names that could not be found by {@link #getResource(String, boolean)} and {@link #getClassResource(String,
+ * boolean)} are remembered in a bounded {@link MissCache} until the search path changes, so probing for the same
+ * missing class again does not visit any entry. The package of a name is looked up in a {@link PackageTable} without
+ * taking it out of the name. The URLs found (or not found) by {@link #findResource(String, boolean)} and {@link
+ * #findResources(String, boolean)} are kept in a bounded {@link LookupCache} until the search path changes, as
+ * frameworks look up the same resources over and over again.
+ * <p/>
+ * Lookups do not lock, changes to the search path are serialized on this index.
+ *
+ * @author Ivo Woltring
+ */
+final class ClassPathIndex {
+    private static final ClassPathEntry[] NO_ENTRIES = {};
+    private static final URL[] NO_URLS = {};
+
+    /* Only used for the security check of found URLs */
+    private static final URLClassPath CHECKER = new URLClassPath(new URL[0]);
+    /* The signers of verified signed jars, only when configured */
+    private static final SignerCache SIGNER_CACHE = SignerCache.fromSystemProperty();
+
+    private final URLStreamHandlerFactory factory;
+    /* Serves the URLs that are (still) in it, may be null */
+    private final ClassArchive archive;
+    /* The search path in order of addition, guarded by this */
+    private final List<ClassPathEntry> entries = new ArrayList<>();
+    private final Set<String> urls = new HashSet<>();
+    /* Package path -> all entries that can contain it (including the unindexed ones) in search path order */
+    private final Map<String, ClassPathEntry[]> packages = new HashMap<>();
+    /* The packages as looked up, null until the first lookup after a change */
+    private volatile PackageTable<ClassPathEntry[]> table;
+    /* Entries that have to be visited for every package */
+    private volatile ClassPathEntry[] unindexed = NO_ENTRIES;
+    private final MissCache resourceMisses = new MissCache(MissCache.DEFAULT_CAPACITY);
+    /* Keyed by the binary name of the class, the name of its class file is only built when it has to be read */
+    private final MissCache classMisses = new MissCache(MissCache.DEFAULT_CAPACITY);
+    /* The URL found by findResource (none or one) and all the URLs found by findResources */
+    private final LookupCache<URL[]> urlCache = new LookupCache<>(LookupCache.DEFAULT_CAPACITY);
+    private final LookupCache<URL[]> urlsCache = new LookupCache<>(LookupCache.DEFAULT_CAPACITY);
+    private volatile boolean closed;
+
+    ClassPathIndex(final URL[] urls, final URLStreamHandlerFactory factory, final ClassArchive archive) {
+        this.factory = factory;
+        this.archive = archive;
+        for (final URL url : urls) {
+            addURL(url);
+        }
+    }
+
+    /**
+     * Appends the specified URL to the search path. A {@code null} URL, a URL already on the search path or adding to
+     * a closed index has no effect.
+     *
+     * @param url the URL to add
+     */
+    synchronized void addURL(final URL url) {
+        if (closed || (url == null) || !urls.add(url.toExternalForm())) {
+            return;
+        }
+        ClassPathEntry entry = (archive == null) ? null : archive.entryFor(url);
+        if (entry == null) {
+            entry = MappedJarEntry.open(url);
+        }
+        if (entry == null) {
+            entry = NestedJarEntry.open(url);
+        }
+        if ((entry == null) && (SIGNER_CACHE != null)) {
+            entry = SignedJarEntry.open(url, SIGNER_CACHE, factory);
+        }
+        if (entry == null) {
+            entry = RemoteEntry.open(url, RemoteCache.fromSystemProperty());
+        }
+        addEntry((entry != null) ? entry : new URLClassPathEntry(url, factory));
+    }
+
+    /*
+     * Entries are always appended so adding them to the end of the
+     * candidate arrays keeps those in search path order. The caches are
+     * only invalidated once the entry is published: a lookup that takes
+     * the new generation is sure to search the new entry as well.
+     */
+    private void addEntry(final ClassPathEntry entry) {
+        entries.add(entry);
+        final Set<String> paths = entry.getPackagePaths();
+        if (paths == null) {
+            for (final Map.Entry<String, ClassPathEntry[]> candidates : packages.entrySet()) {
+                candidates.setValue(append(candidates.getValue(), entry));
+            }
+            unindexed = append(unindexed, entry);
+        } else {
+            for (final String path : paths) {
+                final ClassPathEntry[] candidates = packages.get(path);
+                packages.put(path, append((candidates == null) ? unindexed : candidates, entry));
+            }
+        }
+        // the whole search path is usually added at once, so the table is built once at the first lookup
+        table = null;
+        resourceMisses.invalidate();
+        classMisses.invalidate();
+        urlCache.invalidate();
+        urlsCache.invalidate();
+    }
+
+    private synchronized PackageTable<ClassPathEntry[]> table() {
+        if (table == null) {
+            table = new PackageTable<>(packages);
+        }
+        return table;
+    }
+
+    private static ClassPathEntry[] append(final ClassPathEntry[] array, final ClassPathEntry entry) {
+        final ClassPathEntry[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = entry;
+        return result;
+    }
+
+    /**
+     * @return the search path of URLs in the order they were added
+     */
+    synchronized URL[] getURLs() {
+        final URL[] result = new URL[entries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = entries.get(i).getURL();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of jars on the search path, 0 once the index is closed
+     */
+    synchronized int getJarCount() {
+        if (closed) {
+            return 0;
+        }
+        int count = 0;
+        for (final ClassPathEntry entry : entries) {
+            if (!entry.getURL().getFile().endsWith("/")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds the jars the entries keep mapped through the {@link JarRegistry} to the given set, none once the index is
+     * closed.
+     *
+     * @param jars the set to add to
+     */
+    synchronized void collectMappedJars(final Set<MappedJarFile> jars) {
+        if (closed) {
+            return;
+        }
+        for (final ClassPathEntry entry : entries) {
+            final MappedJarFile jar = entry.getMappedJar();
+            if (jar != null) {
+                jars.add(jar);
+            }
+        }
+    }
+
+    /*
+     * Returns the entries that can contain the named class or resource in
+     * search path order.
+     */
+    private ClassPathEntry[] candidates(final String name, final char separator) {
+        if (closed) {
+            return NO_ENTRIES;
+        }
+        PackageTable<ClassPathEntry[]> current = table;
+        if (current == null) {
+            current = table();
+        }
+        final ClassPathEntry[] candidates = current.get(name, separator);
+        return (candidates == null) ? unindexed : candidates;
+    }
+
+    /**
+     * Finds the first resource on the search path with the given name.
+     *
+     * @param name  the '/' separated name of the resource
+     * @param check whether to perform a security check on the resulting URL
+     * @return the resource or {@code null} if it could not be found or the index is closed
+     */
+    Resource getResource(final String name, final boolean check) {
+        if (resourceMisses.contains(name)) {
+            return null;
+        }
+        final int generation = resourceMisses.generation();
+        for (final ClassPathEntry entry : candidates(name, '/')) {
+            final Resource res = entry.getResource(name, check);
+            if (res != null) {
+                return res;
+            }
+        }
+        resourceMisses.add(name, generation);
+        return null;
+    }
+
+    /**
+     * Finds the class file of the first class on the search path with the given name. The package of the class is
+     * looked up in the name itself and the class file name is only built when an entry can contain the class, so a
+     * class that is known to be missing, or that is in a package no entry has, is looked up without allocating.
+     *
+     * @param name  the binary name of the class
+     * @param check whether to perform a security check on the resulting URL
+     * @return the resource or {@code null} if it could not be found or the index is closed
+     */
+    Resource getClassResource(final String name, final boolean check) {
+        if (classMisses.contains(name)) {
+            return null;
+        }
+        final int generation = classMisses.generation();
+        final ClassPathEntry[] candidates = candidates(name, '.');
+        if (candidates.length > 0) {
+            final String path = name.replace('.', '/').concat(".class");
+            for (final ClassPathEntry entry : candidates) {
+                final Resource res = entry.getResource(path, check);
+                if (res != null) {
+                    return res;
+                }
+            }
+        }
+        classMisses.add(name, generation);
+        return null;
+    }
+
+    /**
+     * Finds the URL of the first resource on the search path with the given name.
+     *
+     * @param name  the '/' separated name of the resource
+     * @param check whether to perform a security check on the resulting URL
+     * @return the URL or {@code null} if it could not be found or the index is closed
+     */
+    URL findResource(final String name, final boolean check) {
+        final URL[] cached = urlCache.get(name);
+        if (cached != null) {
+            return (cached.length == 0) ? null : cached[0];
+        }
+        final int generation = urlCache.generation();
+        for (final ClassPathEntry entry : candidates(name, '/')) {
+            final URL url = entry.findResource(name, check);
+            if (url != null) {
+                urlCache.put(name, new URL[]{url}, generation);
+                return url;
+            }
+        }
+        urlCache.put(name, NO_URLS, generation);
+        return null;
+    }
+
+    /**
+     * Finds the URLs of all the resources on the search path with the given name.
+     *
+     * @param name  the '/' separated name of the resource
+     * @param check whether to perform a security check on the resulting URLs
+     * @return the URLs in search path order, empty if the index is closed
+     */
+    Enumeration<URL> findResources(final String name, final boolean check) {
+        URL[] urls = urlsCache.get(name);
+        if (urls == null) {
+            final int generation = urlsCache.generation();
+            final List<URL> found = new ArrayList<>();
+            final Enumeration<URL> e = new ResourceEnumeration(candidates(name, '/'), name, check);
+            while (e.hasMoreElements()) {
+                found.add(e.nextElement());
+            }
+            urls = found.toArray(new URL[found.size()]);
+            urlsCache.put(name, urls, generation);
+        }
+        return Collections.enumeration(Arrays.asList(urls));
+    }
+
+    /**
+     * Lists the package paths the entries on the search path have class files in, see {@link
+     * ClassPathEntry#getClassPackagePaths()}.
+     *
+     * @return the package paths or {@code null} if an entry can not tell
+     */
+    synchronized Set<String> getClassPackagePaths() {
+        final Set<String> result = new HashSet<>();
+        for (final ClassPathEntry entry : entries) {
+            final Set<String> paths = entry.getClassPackagePaths();
+            if (paths == null) {
+                return null;
+            }
+            result.addAll(paths);
+        }
+        return result;
+    }
+
+    /**
+     * Tells the entries the resources that will be asked for soon, see {@link ClassPathEntry#expect(Collection)}.
+     * Only the entries that can not be indexed are told, the others read what they have.
+     *
+     * @param names the '/' separated names of the resources
+     */
+    void expect(final Collection<String> names) {
+        if (closed || names.isEmpty()) {
+            return;
+        }
+        for (final ClassPathEntry entry : unindexed) {
+            entry.expect(names);
+        }
+    }
+
+    /**
+     * @return the number of findResource and findResources calls answered from the cache
+     */
+    long getResourceCacheHits() {
+        return urlCache.getHits() + urlsCache.getHits();
+    }
+
+    /**
+     * @return the number of findResource and findResources calls that had to search the entries
+     */
+    long getResourceCacheMisses() {
+        return urlCache.getMisses() + urlsCache.getMisses();
+    }
+
+    /**
+     * @return the number of cached lookups evicted to make room
+     */
+    long getResourceCacheEvictions() {
+        return urlCache.getEvictions() + urlsCache.getEvictions();
+    }
+
+    /**
+     * Performs the security check on a URL found on the search path.
+     *
+     * @param url the URL to check
+     * @return the URL or {@code null} if access to it is denied
+     */
+    URL checkURL(final URL url) {
+        return check(url);
+    }
+
+    /**
+     * Performs the security check on a URL found by a {@link ClassPathEntry}.
+     *
+     * @param url the URL to check
+     * @return the URL or {@code null} if access to it is denied
+     */
+    static URL check(final URL url) {
+        return CHECKER.checkURL(url);
+    }
+
+    /**
+     * Closes all the entries on the search path. After closing, lookups will not find anything anymore.
+     *
+     * @return the exceptions thrown while closing the entries
+     */
+    synchronized List<IOException> closeLoaders() {
+        final List<IOException> errors = new ArrayList<>();
+        if (closed) {
+            return errors;
+        }
+        closed = true;
+        resourceMisses.invalidate();
+        classMisses.invalidate();
+        urlCache.invalidate();
+        urlsCache.invalidate();
+        for (final ClassPathEntry entry : entries) {
+            try {
+                entry.close();
+            } catch (IOException e) {
+                errors.add(e);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Adds the package path of the given resource name and all of its ancestors to the set. The root path {@code ""}
+     * must already be in the set.
+     *
+     * @param paths the set to add to
+     * @param name  the '/' separated resource name
+     */
+    static void addPackagePaths(final Set<String> paths, final String name) {
+        int end = name.lastIndexOf('/');
+        while ((end > 0) && paths.add(name.substring(0, end))) {
+            end = name.lastIndexOf('/', end - 1);
+        }
+    }
+
+    /**
+     * Adds the package path of the given resource name to the set if it is a class file. The class files in META-INF
+     * (like those of a multi-release jar) are not of a package.
+     *
+     * @param paths the set to add to
+     * @param name  the '/' separated resource name
+     */
+    static void addClassPackagePath(final Set<String> paths, final String name) {
+        if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+            return;
+        }
+        final int end = name.lastIndexOf('/');
+        paths.add((end == -1) ? "" : name.substring(0, end));
+    }
+
+    private static final class ResourceEnumeration implements Enumeration<URL> {
+        private final ClassPathEntry[] candidates;
+        private final String name;
+        private final boolean check;
+        private int index;
+        private Enumeration<URL> current;
+
+        private ResourceEnumeration(final ClassPathEntry[] candidates, final String name, final boolean check) {
+            this.candidates = candidates;
+            this.name = name;
+            this.check = check;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            while ((current == null) || !current.hasMoreElements()) {
+                if (index >= candidates.length) {
+                    return false;
+                }
+                current = candidates[index++].findResources(name, check);
+            }
+            return true;
+        }
+
+        @Override
+        public URL nextElement() {
+            if (!hasMoreElements()) {
+                throw new NoSuchElementException();
+            }
+            return current.nextElement();
+        }
+    }
+}
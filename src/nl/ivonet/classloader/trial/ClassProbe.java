@@ -0,0 +1,67 @@
+package nl.ivonet.classloader.trial;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+/**
+ * A class loader that can report a missing class without throwing an exception.
+ *
+ * @author Ivo Woltring
+ */
+interface ClassProbe {
+
+    /**
+     * Loads the class with the given name like {@link ClassLoader#loadClass(String)} does.
+     *
+     * @param name the binary name of the class
+     * @return the class or {@code null} if it could not be found
+     */
+    Class<?> tryLoadClass(String name);
+
+    /**
+     * Returns the loader as a probe if {@link #tryLoadClass(String)} does what its {@code loadClass} does: a subclass
+     * that overrides {@code loadClass(String, boolean)} (to check package access, for instance) without overriding
+     * {@code tryLoadClass} as well has to be asked with {@code loadClass}.
+     *
+     * @param loader the loader, may be {@code null}
+     * @return the probe or {@code null} if the loader has to be asked with {@code loadClass}
+     */
+    static ClassProbe of(final ClassLoader loader) {
+        return ((loader instanceof ClassProbe) && Consistency.PROBES.get(loader.getClass())) ? (ClassProbe) loader
+                                                                                             : null;
+    }
+
+    /**
+     * Whether the most specific {@code loadClass(String, boolean)} and {@code tryLoadClass(String)} of a class are
+     * declared by the same class, looked up once per class.
+     */
+    final class Consistency {
+        private static final ClassValue<Boolean> PROBES = new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(final Class<?> type) {
+                return AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+                    @Override
+                    public Boolean run() {
+                        return declarer(type, "loadClass", String.class, boolean.class)
+                               == declarer(type, "tryLoadClass", String.class);
+                    }
+                });
+            }
+        };
+
+        private Consistency() {
+        }
+
+        private static Class<?> declarer(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod(name, parameterTypes);
+                    return c;
+                } catch (NoSuchMethodException ignored) {
+                    // declared further up
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package nl.ivonet.classloader.trial;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A tiny HTTP server serving the files of a directory, to load classes over the network without a network.
+ * <p/>
+ * Only GET and HEAD are served, and a POST to a directory for a {@link RemoteBatch} of files. Every file gets an ETag
+ * (of its size and modification time), a Last-Modified and a Cache-Control max-age header, and conditional requests
+ * are answered with 304 Not Modified. A 404 Not Found gets the same max-age, so clients can remember a miss as long as
+ * a hit. The connections are kept alive. The server listens on the loopback address
+ * only and counts the requests and connections it served. To stand in for a server far away every request can be
+ * made to take a while longer ({@link #setLatency(int)}), and to stand in for a plain HTTP server the batches can be
+ * turned off ({@link #setBatch(boolean)}).
+ * <p/>
+ * Usage:
+ * <pre>
+ * try (ClassServer server = ClassServer.start(new File("ClassesNotOnClassPath"), 0, 60)) {
+ *     new IvoNetClassLoader(new URL[]{server.getURL()}).loadClass("ivonet.IvoNet");
+ * }
+ * </pre>
+ *
+ * @author Ivo Woltring
+ */
+public final class ClassServer implements Closeable {
+    private static final int MAX_PREDICT_DEPTH = 16;
+
+    /*
+     * The JDK server writes the headers and the body of a response apart. With
+     * Nagle on, a small body waits for the delayed ACK of the client (~40ms)
+     * on every kept alive request. Read once, when the first server is made.
+     */
+    static {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Path root;
+    private final int maxAge;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LongAdder requests = new LongAdder();
+    /* The client side address of every connection served */
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private volatile int latency;
+    private volatile boolean batch = true;
+
+    private ClassServer(final Path root, final int port, final int maxAge) throws IOException {
+        this.root = root;
+        this.maxAge = maxAge;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "IvoNet class server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts serving a directory.
+     *
+     * @param directory the directory to serve
+     * @param port      the port to listen on, 0 for any free port
+     * @param maxAge    the number of seconds clients may use a file without asking again
+     * @return the started server
+     * @throws IOException if the server could not be started
+     */
+    public static ClassServer start(final File directory, final int port, final int maxAge) throws IOException {
+        final ClassServer classServer = new ClassServer(directory.getCanonicalFile().toPath(), port, maxAge);
+        classServer.server.start();
+        return classServer;
+    }
+
+    /**
+     * @return the URL of the served directory, to put on the search path of a loader
+     */
+    public URL getURL() {
+        try {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of requests served
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of connections served, less than the requests when connections are kept alive
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    /**
+     * @param millis the time every request takes before it is served, like the round trip to a server far away
+     */
+    public void setLatency(final int millis) {
+        latency = millis;
+    }
+
+    /**
+     * @param batch false to answer batches like a plain HTTP server would (with 405 Method Not Allowed)
+     */
+    public void setBatch(final boolean batch) {
+        this.batch = batch;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException {
+        requests.increment();
+        connections.add(exchange.getRemoteAddress());
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final String method = exchange.getRequestMethod();
+        final Path file = resolve(exchange.getRequestURI());
+        if ("POST".equals(method) && batch && (file != null) && Files.isDirectory(file)) {
+            serveBatch(exchange, file);
+            return;
+        }
+        // a response without body finishes the exchange right away, closing the connection if the request is unread
+        exchange.getRequestBody().close();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        if ((file == null) || !Files.isRegularFile(file)) {
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=" + maxAge);
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        final long lastModified = Files.getLastModifiedTime(file).toMillis();
+        final long size = Files.size(file);
+        final String etag = etag(size, lastModified);
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", httpDate(lastModified));
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=" + maxAge);
+        if (isNotModified(exchange, etag, lastModified)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        if ("HEAD".equals(method)) {
+            exchange.getResponseHeaders().set("Content-Length", Long.toString(size));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        final byte[] bytes = Files.readAllBytes(file);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /*
+     * Answers the names asked for, followed by the classes they refer to
+     * (breadth first, up to the predict depth) that are in the directory.
+     */
+    private void serveBatch(final HttpExchange exchange, final Path directory) throws IOException {
+        final List<String> names;
+        try (InputStream in = exchange.getRequestBody()) {
+            names = RemoteBatch.readRequest(in);
+        } catch (IOException e) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+        final int depth = predictDepth(exchange.getRequestHeaders().getFirst(RemoteBatch.PREDICT_HEADER));
+        final List<RemoteBatch.Item> items = new ArrayList<>();
+        final Set<String> included = new HashSet<>(names);
+        List<String> step = new ArrayList<>();
+        for (final String name : names) {
+            final RemoteBatch.Item item = read(directory, name);
+            if (item == null) {
+                // too large for a batch, the client asks for it on its own
+                continue;
+            }
+            items.add(item);
+            if (item.getBytes() != null) {
+                step.add(name);
+            }
+        }
+        for (int i = 0; (i < depth) && !step.isEmpty(); i++) {
+            final List<String> next = new ArrayList<>();
+            for (final String name : step) {
+                for (final String referenced : referenced(directory, name)) {
+                    if ((items.size() < RemoteBatch.MAX_NAMES) && included.add(referenced)) {
+                        final RemoteBatch.Item item = read(directory, referenced);
+                        if ((item != null) && (item.getBytes() != null)) {
+                            items.add(item);
+                            next.add(referenced);
+                        }
+                    }
+                }
+            }
+            step = next;
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        RemoteBatch.writeResponse(body, items);
+        exchange.getResponseHeaders().set("Content-Type", RemoteBatch.CONTENT_TYPE);
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=" + maxAge);
+        exchange.sendResponseHeaders(200, body.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+
+    private static int predictDepth(final String header) {
+        if (header == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Math.min(MAX_PREDICT_DEPTH, Integer.parseInt(header.trim())));
+        } catch (NumberFormatException ignored) {
+            return 0;
+        }
+    }
+
+    /*
+     * The file as a batch item, null if it is too large for a batch.
+     */
+    private RemoteBatch.Item read(final Path directory, final String name) throws IOException {
+        final Path file = directory.resolve(name).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            return new RemoteBatch.Item(name, null, null, 0L);
+        }
+        if (Files.size(file) > RemoteBatch.MAX_LENGTH) {
+            return null;
+        }
+        final long lastModified = Files.getLastModifiedTime(file).toMillis();
+        final byte[] bytes = Files.readAllBytes(file);
+        return new RemoteBatch.Item(name, bytes, etag(bytes.length, lastModified), lastModified);
+    }
+
+    /*
+     * The resource names of the classes a class file in the directory refers
+     * to, none for anything that is not a class file.
+     */
+    private static List<String> referenced(final Path directory, final String name) throws IOException {
+        if (!name.endsWith(".class")) {
+            return Collections.emptyList();
+        }
+        try {
+            final List<String> names = new ArrayList<>();
+            for (final String className : ClassFileInfo.parse(Files.readAllBytes(directory.resolve(name)))
+                                                       .getReferenced()) {
+                names.add(className.replace('.', '/') + ".class");
+            }
+            return names;
+        } catch (IllegalArgumentException ignored) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static String etag(final long size, final long lastModified) {
+        return "\"" + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + "\"";
+    }
+
+    /*
+     * The file in the served directory, null for a path outside of it.
+     */
+    private Path resolve(final URI uri) {
+        final String path = uri.getPath();
+        if ((path == null) || !path.startsWith("/")) {
+            return null;
+        }
+        final Path file = root.resolve(path.substring(1)).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    private static boolean isNotModified(final HttpExchange exchange, final String etag, final long lastModified) {
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.contains(etag);
+        }
+        final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                // the header has whole seconds only
+                return (lastModified / 1000L) <= (httpDateFormat().parse(ifModifiedSince).getTime() / 1000L);
+            } catch (ParseException ignored) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static String httpDate(final long millis) {
+        return httpDateFormat().format(new Date(millis));
+    }
+
+    private static SimpleDateFormat httpDateFormat() {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+}
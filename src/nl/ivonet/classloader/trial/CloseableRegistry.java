@@ -0,0 +1,102 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The streams and jar files opened for a loader, to be closed when the loader is closed.
+ * <p/>
+ * Like the weak hash map it replaces the closeables are only weakly referenced, so a stream the caller dropped
+ * without closing it does not stay around, and entries are identified by identity. Registering does not lock: the
+ * set is a concurrent hash map and references to collected closeables are expunged through a reference queue.
+ *
+ * @author Ivo Woltring
+ */
+final class CloseableRegistry {
+    private final Set<CloseableReference> closeables = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Closeable> queue = new ReferenceQueue<>();
+
+    /**
+     * Registers a closeable, unless it is registered already.
+     *
+     * @param closeable the stream or jar file to close with the loader
+     */
+    void register(final Closeable closeable) {
+        expunge();
+        closeables.add(new CloseableReference(closeable, queue));
+    }
+
+    /**
+     * Closes and forgets all the registered closeables that are still around.
+     *
+     * @return the exceptions thrown while closing
+     */
+    List<IOException> closeAll() {
+        final List<IOException> errors = new ArrayList<>();
+        final Iterator<CloseableReference> iterator = closeables.iterator();
+        while (iterator.hasNext()) {
+            final Closeable closeable = iterator.next().get();
+            iterator.remove();
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    errors.add(e);
+                }
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * @return the number of registered closeables that are still around
+     */
+    int size() {
+        expunge();
+        return closeables.size();
+    }
+
+    private void expunge() {
+        CloseableReference reference;
+        while ((reference = (CloseableReference) queue.poll()) != null) {
+            closeables.remove(reference);
+        }
+    }
+
+    /*
+     * Equal to another reference to the same closeable, and only to itself
+     * once the closeable is collected.
+     */
+    private static final class CloseableReference extends WeakReference<Closeable> {
+        private final int hash;
+
+        private CloseableReference(final Closeable closeable, final ReferenceQueue<Closeable> queue) {
+            super(closeable, queue);
+            hash = System.identityHashCode(closeable);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof CloseableReference)) {
+                return false;
+            }
+            final Closeable closeable = get();
+            return (closeable != null) && (closeable == ((CloseableReference) other).get());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package nl.ivonet.classloader.trial;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides per package whether a class loader asks its parent first (the normal delegation model) or looks in its
+ * own search path first (parent last / child first).
+ * <p/>
+ * A policy has a default and any number of package rules. A rule like {@code "com.tenant.*"} applies to that package
+ * and all its sub packages; when more rules apply the longest one wins. Classes in {@code java.*} can only be
+ * defined by the bootstrap loader so those are always loaded parent first.
+ * <p/>
+ * Example: a child first policy that still leaves {@code javax.*} to the parent and keeps {@code com.tenant.*} local:
+ * <pre>
+ *     DelegationPolicy.CHILD_FIRST.withParentFirst("javax.*").withChildFirst("com.tenant.*")
+ * </pre>
+ * Policies are immutable. The decision made for a package is remembered in a {@link PackageMemo}, so the rules are
+ * only evaluated once per package and a decision is looked up without taking the package name out of the class
+ * name. A policy without rules has nothing to evaluate and remembers nothing.
+ *
+ * @author Ivo Woltring
+ */
+public final class DelegationPolicy {
+
+    /**
+     * Ask the parent class loader first and only look locally if the parent can not find the class.
+     */
+    public static final DelegationPolicy PARENT_FIRST =
+            new DelegationPolicy(true, Collections.<String, Boolean>emptyMap());
+
+    /**
+     * Look in the local search path first and only ask the parent class loader if the class is not there.
+     */
+    public static final DelegationPolicy CHILD_FIRST =
+            new DelegationPolicy(false, Collections.<String, Boolean>emptyMap());
+
+    /* The packages a policy remembers its decision for, the others are evaluated every time */
+    private static final int MEMO_CAPACITY = 4096;
+
+    private final boolean parentFirst;
+    /* Package prefix (without the trailing ".*") -> parent first */
+    private final Map<String, Boolean> rules;
+    /* The rules as matched */
+    private final String[] prefixes;
+    private final boolean[] prefixParentFirst;
+    /* Package path -> parent first, filled as packages are asked for; null without rules */
+    private final PackageMemo<Boolean> decisions;
+
+    private DelegationPolicy(final boolean parentFirst, final Map<String, Boolean> rules) {
+        this.parentFirst = parentFirst;
+        this.rules = rules;
+        prefixes = rules.keySet().toArray(new String[rules.size()]);
+        prefixParentFirst = new boolean[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixParentFirst[i] = rules.get(prefixes[i]);
+        }
+        decisions = (prefixes.length == 0) ? null : new PackageMemo<Boolean>(MEMO_CAPACITY);
+    }
+
+    /**
+     * Returns a policy with the same rules as this one, plus rules to always ask the parent first for the given
+     * packages.
+     *
+     * @param packages package names, a trailing {@code ".*"} is optional
+     * @return the new policy
+     */
+    public DelegationPolicy withParentFirst(final String... packages) {
+        return withRules(packages, Boolean.TRUE);
+    }
+
+    /**
+     * Returns a policy with the same rules as this one, plus rules to always look in the local search path first for
+     * the given packages.
+     *
+     * @param packages package names, a trailing {@code ".*"} is optional
+     * @return the new policy
+     */
+    public DelegationPolicy withChildFirst(final String... packages) {
+        return withRules(packages, Boolean.FALSE);
+    }
+
+    private DelegationPolicy withRules(final String[] packages, final Boolean parentFirst) {
+        final Map<String, Boolean> result = new LinkedHashMap<>(rules);
+        for (final String pkg : packages) {
+            result.put(pkg.endsWith(".*") ? pkg.substring(0, pkg.length() - 2) : pkg, parentFirst);
+        }
+        return new DelegationPolicy(this.parentFirst, Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * @param className the binary name of the class to load
+     * @return true if the parent class loader has to be asked first for the class
+     */
+    boolean isParentFirst(final String className) {
+        if (decisions == null) {
+            return decide(className);
+        }
+        Boolean decision = decisions.get(className, '.');
+        if (decision == null) {
+            decision = decide(className);
+            decisions.put(className, '.', decision);
+        }
+        return decision;
+    }
+
+    private Boolean decide(final String className) {
+        if (className.startsWith("java.")) {
+            return Boolean.TRUE;
+        }
+        int match = -1;
+        for (int i = 0; i < prefixes.length; i++) {
+            if (inPackage(className, prefixes[i])
+                && ((match == -1) || (prefixes[i].length() > prefixes[match].length()))) {
+                match = i;
+            }
+        }
+        return Boolean.valueOf((match == -1) ? parentFirst : prefixParentFirst[match]);
+    }
+
+    /*
+     * Whether the class is in the package or one of its sub packages.
+     */
+    private static boolean inPackage(final String className, final String pkg) {
+        if (pkg.isEmpty()) {
+            return className.indexOf('.') == -1;
+        }
+        return (className.length() > pkg.length()) && (className.charAt(pkg.length()) == '.')
+               && className.startsWith(pkg);
+    }
+
+    @Override
+    public String toString() {
+        return "DelegationPolicy{" + (parentFirst ? "parent first" : "child first") + ", rules=" + rules + '}';
+    }
+}
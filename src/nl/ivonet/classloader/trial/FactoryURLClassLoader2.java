@@ -24,6 +24,18 @@ final class FactoryURLClassLoader2 extends IvoNetClassLoader2 {
     @Override
     public final Class loadClass(final String name, final boolean resolve)
             throws ClassNotFoundException {
+        checkPackageAccess(name);
+        return super.loadClass(name, resolve);
+    }
+
+    @Override
+    public final Class<?> tryLoadClass(final String name) {
+        // the children that probe this loader get the same check
+        checkPackageAccess(name);
+        return super.tryLoadClass(name);
+    }
+
+    private static void checkPackageAccess(final String name) {
         // First check if we have permission to access the package. This
         // should go away once we've added support for exported packages.
         final SecurityManager sm = System.getSecurityManager();
@@ -33,6 +45,5 @@ final class FactoryURLClassLoader2 extends IvoNetClassLoader2 {
                 sm.checkPackageAccess(name.substring(0, i));
             }
         }
-        return super.loadClass(name, resolve);
     }
 }
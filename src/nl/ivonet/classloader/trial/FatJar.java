@@ -0,0 +1,93 @@
+package nl.ivonet.classloader.trial;
+
+import sun.net.www.ParseUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * The search path of a fat jar: a jar with its own classes in {@code BOOT-INF/classes/} and the libraries it needs as
+ * jars in {@code BOOT-INF/lib/}, the way Spring Boot packages an application.
+ * <p/>
+ * The URLs point into the fat jar, like {@code jar:file:/app.jar!/BOOT-INF/lib/library.jar}. The {@link
+ * IvoNetClassLoader} reads the classes and resources of those straight from the mapped fat jar, so nothing has to be
+ * extracted to a temporary folder first. The libraries should be stored in the fat jar, not deflated (which is what
+ * Spring Boot does): a deflated library is inflated into memory when the loader is created.
+ *
+ * @author Ivo Woltring
+ */
+public final class FatJar {
+    public static final String CLASSES = "BOOT-INF/classes/";
+    public static final String LIB = "BOOT-INF/lib/";
+    /* The libraries in the order they have to be on the search path, if the fat jar has it */
+    private static final String CLASSPATH_INDEX = "BOOT-INF/classpath.idx";
+
+    private FatJar() {
+    }
+
+    /**
+     * Lists the search path of a fat jar: its classes first, then its libraries in the order of the classpath index of
+     * the jar or, without one, in the order they are in the jar.
+     *
+     * @param jar the fat jar
+     * @return the URLs of the classes and libraries in the fat jar, empty if it has neither
+     * @throws IOException if the jar could not be read
+     */
+    public static URL[] classPath(final File jar) throws IOException {
+        final String base = "jar:" + jar.toURI().toURL() + "!/";
+        final List<String> names = new ArrayList<>();
+        try (JarFile file = new JarFile(jar, false)) {
+            final List<String> libraries = new ArrayList<>();
+            boolean classes = false;
+            final Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                final String name = entries.nextElement().getName();
+                if (name.startsWith(CLASSES)) {
+                    classes = true;
+                } else if (name.startsWith(LIB) && name.endsWith(".jar") && (name.indexOf('/', LIB.length()) == -1)) {
+                    libraries.add(name);
+                }
+            }
+            if (classes) {
+                names.add(CLASSES);
+            }
+            final ZipEntry index = file.getEntry(CLASSPATH_INDEX);
+            names.addAll((index == null) ? libraries : readIndex(file, index));
+        }
+        final URL[] urls = new URL[names.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = new URL(base + ParseUtil.encodePath(names.get(i), false));
+        }
+        return urls;
+    }
+
+    /*
+     * Lines like - "BOOT-INF/lib/library.jar".
+     */
+    private static List<String> readIndex(final JarFile file, final ZipEntry index) throws IOException {
+        final List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream(index),
+                                                                              StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int start = line.indexOf('"');
+                final int end = line.lastIndexOf('"');
+                final String name = (start < end) ? line.substring(start + 1, end) : line.trim();
+                if (!name.isEmpty()) {
+                    names.add(name.startsWith(LIB) ? name : (LIB + name));
+                }
+            }
+        }
+        return names;
+    }
+}
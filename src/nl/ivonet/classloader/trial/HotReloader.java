@@ -0,0 +1,469 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the classes of the local directories on a search path when their class files change, without a restart.
+ * <p/>
+ * A class can not be defined twice by the same loader, so a change is published as a new generation: a fresh loader
+ * that defines the changed classes (and those that are created or deleted) again, together with every class in the
+ * directories that refers to them, directly or through other classes, so none of those links to an old version. All
+ * other classes stay with the stable loader, the parent of every generation, and are shared by all generations.
+ * Which classes refer to which is taken from the constant pools of all class files in the directories, read once when
+ * watching starts and for every change after that.
+ * <p/>
+ * The directories and their sub directories are watched with a {@link WatchService} on a daemon thread. Changes come
+ * in bursts (a build writes many class files), so a generation is only published once no change came in for the
+ * debounce time. Changed classes stay reloaded in all later generations. Instances of the classes of an earlier
+ * generation keep working, new instances have to be made through the loader of the new generation, which is what
+ * {@link #getLoader()} returns and what the listeners are given. Jars and other URLs on the search path are served by
+ * the stable loader only, a generation only has the watched directories on its search path.
+ * <p/>
+ * An exception thrown while publishing a generation, by a listener or by the new loader, is handed to the uncaught
+ * exception handler of the watch thread, which keeps watching.
+ * <p/>
+ * Usage:
+ * <pre>
+ * try (HotReloader reloader = HotReloader.watch(new URL[]{new File("classes").toURI().toURL()}, parent)) {
+ *     reloader.addListener(new HotReloader.Listener() {
+ *         public void published(ClassLoader generation, Set&lt;String&gt; reloaded) {
+ *             // make new instances through the new generation
+ *         }
+ *     });
+ * }
+ * </pre>
+ *
+ * @author Ivo Woltring
+ */
+public final class HotReloader implements Closeable {
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100L;
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /* The watched directories, the search path of every generation */
+    private final List<URL> directories = new ArrayList<>();
+    private final long debounceMillis;
+    private final IvoNetClassLoader stable;
+    private final WatchService watchService;
+    /* The watched directories and the one on the search path they are in */
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+    private final List<Path> roots = new ArrayList<>();
+    /* Class name -> the names it refers to, for all class files in the directories. Only used by the watch thread */
+    private final Map<String, List<String>> references = new HashMap<>();
+    /* All classes that changed since watching started. Only used by the watch thread */
+    private final Set<String> changed = new HashSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile ClassLoader current;
+    private volatile int generation;
+    private volatile boolean closed;
+
+    /**
+     * Notified of every new generation, on the watch thread.
+     */
+    public interface Listener {
+
+        /**
+         * @param generation the loader of the new generation
+         * @param reloaded   the binary names of the classes the new generation defines itself
+         */
+        void published(ClassLoader generation, Set<String> reloaded);
+    }
+
+    private HotReloader(final URL[] urls, final ClassLoader parent, final long debounceMillis) throws IOException {
+        this.debounceMillis = debounceMillis;
+        stable = new IvoNetClassLoader(urls, parent);
+        current = stable;
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (final URL url : urls) {
+                final Path root = directory(url);
+                if (root != null) {
+                    directories.add(url);
+                    roots.add(root);
+                    register(root, null);
+                }
+            }
+        } catch (IOException e) {
+            watchService.close();
+            stable.close();
+            throw e;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "HotReloader");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts watching the local directories on the search path with the default debounce time. See
+     * {@link #watch(URL[], ClassLoader, long)}.
+     *
+     * @param urls   the search path
+     * @param parent the parent of the stable loader
+     * @return the reloader
+     * @throws IOException if the directories could not be read or watched
+     */
+    public static HotReloader watch(final URL[] urls, final ClassLoader parent) throws IOException {
+        return watch(urls, parent, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Starts watching the local directories (file: URLs ending with '/') on the search path.
+     *
+     * @param urls           the search path
+     * @param parent         the parent of the stable loader
+     * @param debounceMillis how long no change has to come in before a new generation is published
+     * @return the reloader
+     * @throws IOException if the directories could not be read or watched
+     */
+    public static HotReloader watch(final URL[] urls, final ClassLoader parent, final long debounceMillis)
+            throws IOException {
+        if (debounceMillis < 0L) {
+            throw new IllegalArgumentException("debounceMillis must not be negative: " + debounceMillis);
+        }
+        final HotReloader reloader = new HotReloader(urls, parent, debounceMillis);
+        reloader.thread.start();
+        return reloader;
+    }
+
+    /**
+     * @return the loader of the latest generation, the stable loader as long as nothing changed
+     */
+    public ClassLoader getLoader() {
+        return current;
+    }
+
+    /**
+     * @return the number of the latest generation, 0 as long as nothing changed
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stops watching and closes the stable loader and the loader of the latest generation.
+     *
+     * @throws IOException if a loader could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final ClassLoader latest = current;
+        try {
+            if (latest != stable) {
+                ((Closeable) latest).close();
+            }
+        } finally {
+            stable.close();
+        }
+    }
+
+    private static Path directory(final URL url) {
+        if (!"file".equals(url.getProtocol()) || !url.getFile().endsWith("/")) {
+            return null;
+        }
+        try {
+            final Path path = Paths.get(url.toURI());
+            return Files.isDirectory(path) ? path : null;
+        } catch (URISyntaxException | IllegalArgumentException ignored) {
+            return null;
+        }
+    }
+
+    /*
+     * Watches the directory and its sub directories and reads the constant
+     * pools of their class files. The names of those are added to the
+     * changed ones if given.
+     */
+    private void register(final Path dir, final Set<String> created) throws IOException {
+        final Path root = rootOf(dir);
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path path, final BasicFileAttributes attributes)
+                    throws IOException {
+                watched.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                          StandardWatchEventKinds.ENTRY_DELETE,
+                                          StandardWatchEventKinds.ENTRY_MODIFY), root);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path path, final BasicFileAttributes attributes) {
+                final String name = className(root, path);
+                if (name != null) {
+                    read(name, path);
+                    if (created != null) {
+                        created.add(name);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Path rootOf(final Path dir) {
+        for (final Path root : roots) {
+            if (dir.startsWith(root)) {
+                return root;
+            }
+        }
+        throw new IllegalArgumentException("Not watched: " + dir);
+    }
+
+    private static String className(final Path root, final Path file) {
+        final String relative = root.relativize(file).toString();
+        if (!relative.endsWith(CLASS_SUFFIX)) {
+            return null;
+        }
+        return relative.substring(0, relative.length() - CLASS_SUFFIX.length())
+                       .replace(file.getFileSystem().getSeparator(), ".");
+    }
+
+    /*
+     * (Re)reads the names the class refers to, forgets the class if it is
+     * gone or not a class file (yet).
+     */
+    private void read(final String name, final Path file) {
+        try {
+            references.put(name, ClassFileInfo.parse(Files.readAllBytes(file)).getReferenced());
+        } catch (IOException | IllegalArgumentException ignored) {
+            references.remove(name);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (!closed) {
+                final Set<String> names = new HashSet<>();
+                WatchKey key = watchService.take();
+                do {
+                    collect(key, names);
+                } while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null);
+                if (!names.isEmpty()) {
+                    try {
+                        publish(names);
+                    } catch (RuntimeException e) {
+                        // the changes stay in the changed classes, so the next change publishes them again
+                        report(e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            // closed
+        }
+    }
+
+    /*
+     * Adds the names of the class files the events of the key are about.
+     */
+    private void collect(final WatchKey key, final Set<String> names) {
+        final Path root = watched.get(key);
+        final Path dir = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, everything may have changed
+                names.addAll(rescan());
+                continue;
+            }
+            final Path path = dir.resolve((Path) event.context());
+            if ((event.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(path)) {
+                try {
+                    register(path, names);
+                } catch (IOException ignored) {
+                    // watched as far as it got, e.g. deleted again
+                }
+                continue;
+            }
+            final String name = className(root, path);
+            if (name != null) {
+                read(name, path);
+                names.add(name);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                forget(root, path, names);
+            }
+        }
+        if (!key.reset()) {
+            watched.remove(key);
+        }
+    }
+
+    /*
+     * Forgets the classes of a deleted directory, which do not get events of
+     * their own.
+     */
+    private void forget(final Path root, final Path dir, final Set<String> names) {
+        final String prefix = root.relativize(dir).toString().replace(dir.getFileSystem().getSeparator(), ".") + '.';
+        for (final String name : new ArrayList<>(references.keySet())) {
+            if (name.startsWith(prefix)) {
+                references.remove(name);
+                names.add(name);
+            }
+        }
+    }
+
+    private Set<String> rescan() {
+        final Set<String> names = new HashSet<>(references.keySet());
+        references.clear();
+        for (final Path root : roots) {
+            try {
+                register(root, names);
+            } catch (IOException ignored) {
+                // reloaded as far as it got
+            }
+        }
+        return names;
+    }
+
+    private void publish(final Set<String> names) {
+        changed.addAll(names);
+        final Set<String> reloaded = Collections.unmodifiableSet(dependents(changed));
+        final int next = generation + 1;
+        final Generation loader = new Generation(directories.toArray(new URL[directories.size()]), stable, reloaded);
+        current = loader;
+        generation = next;
+        for (final Listener listener : listeners) {
+            try {
+                listener.published(loader, reloaded);
+            } catch (RuntimeException e) {
+                // the other listeners still get the new generation
+                report(e);
+            }
+        }
+    }
+
+    private void report(final RuntimeException e) {
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    /*
+     * The classes and all the classes in the directories that refer to
+     * them, directly or through others.
+     */
+    private Set<String> dependents(final Set<String> classes) {
+        final Map<String, List<String>> referencedBy = new HashMap<>();
+        for (final Map.Entry<String, List<String>> entry : references.entrySet()) {
+            for (final String referenced : entry.getValue()) {
+                List<String> users = referencedBy.get(referenced);
+                if (users == null) {
+                    users = new ArrayList<>();
+                    referencedBy.put(referenced, users);
+                }
+                users.add(entry.getKey());
+            }
+        }
+        final Set<String> result = new HashSet<>(classes);
+        final Deque<String> todo = new ArrayDeque<>(classes);
+        String name;
+        while ((name = todo.poll()) != null) {
+            final List<String> users = referencedBy.get(name);
+            if (users != null) {
+                for (final String user : users) {
+                    if (result.add(user)) {
+                        todo.add(user);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The loader of a generation: defines the reloaded classes itself and leaves all others to the stable loader.
+     */
+    private static final class Generation extends IvoNetClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        private final Set<String> reloaded;
+
+        private Generation(final URL[] urls, final ClassLoader stable, final Set<String> reloaded) {
+            super(urls, stable);
+            this.reloaded = reloaded;
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!reloaded.contains(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                final Class<?> c = findReloaded(name);
+                if (c == null) {
+                    // deleted, the stable loader may still have the old one
+                    throw new StacklessClassNotFoundException(name);
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+
+        @Override
+        public Class<?> tryLoadClass(final String name) {
+            if (!reloaded.contains(name)) {
+                return super.tryLoadClass(name);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                try {
+                    return findReloaded(name);
+                } catch (ClassNotFoundException ignored) {
+                    // found but unreadable, which is a miss for a probe
+                    return null;
+                }
+            }
+        }
+
+        private Class<?> findReloaded(final String name) throws ClassNotFoundException {
+            final Class<?> c = findLoadedClass(name);
+            return (c != null) ? c : tryFindClass(name);
+        }
+    }
+}
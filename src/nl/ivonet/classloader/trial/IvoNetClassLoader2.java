@@ -1,7 +1,6 @@
 package nl.ivonet.classloader.trial;
 
 import sun.misc.Resource;
-import sun.misc.URLClassPath;
 import sun.net.www.ParseUtil;
 import sun.security.util.SecurityConstants;
 
@@ -17,19 +16,23 @@ import java.net.URLConnection;
 import java.net.URLStreamHandlerFactory;
 import java.security.AccessControlContext;
 import java.security.AccessController;
-import java.security.CodeSigner;
 import java.security.CodeSource;
 import java.security.Permission;
 import java.security.PermissionCollection;
 import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.security.ProtectionDomain;
 import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.jar.Attributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -39,7 +42,10 @@ import java.util.jar.Manifest;
  * to a JAR file which will be opened as needed.
  * <p/>
  * The AccessControlContext of the thread that created the instance of URLClassLoader will be used when subsequently
- * loading classes and resources.
+ * loading classes and resources. That is only needed when a security manager is installed when the loader is created:
+ * without one there are no privileges to assert, so classes and resources are looked up directly, without an action
+ * for every lookup or every URL of an enumeration. To compare the two, {@code
+ * -Dnl.ivonet.classloader.alwaysPrivileged=true} makes the loaders created from then on look up privileged anyway.
  * <p/>
  * The classes that are loaded are by default granted permission only to access the URLs specified when the
  * URLClassLoader was created.
@@ -47,13 +53,54 @@ import java.util.jar.Manifest;
  * @author David Connelly
  * @since 1.2
  */
-public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
-    /* The search path for classes and resources */
-    private final URLClassPath urlClassPath;
+public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable, ClassProbe {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private static final String ALWAYS_PRIVILEGED_PROPERTY = "nl.ivonet.classloader.alwaysPrivileged";
+
+    /* The search path for classes and resources, indexed by package */
+    private final ClassPathIndex classPath;
     /* The context to be used when loading classes and resources */
     private final AccessControlContext accessControlContext;
-    private final WeakHashMap<Closeable, Void>
-            closeables = new WeakHashMap<>();
+    /* Whether to look up in that context, decided once when the loader is created */
+    private final boolean privileged = (System.getSecurityManager() != null)
+                                       || Boolean.getBoolean(ALWAYS_PRIVILEGED_PROPERTY);
+    private final CloseableRegistry closeables = new CloseableRegistry();
+    /* Per class name locks, so classes with different names can be loaded in parallel */
+    private final ClassLoadingLocks classLoadingLocks = new ClassLoadingLocks();
+    /* Read once: under a security manager getParent checks the getClassLoader permission of every caller */
+    private final ClassLoader parentLoader = AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+        @Override
+        public ClassLoader run() {
+            return IvoNetClassLoader2.this.getParent();
+        }
+    });
+    /* Whether to ask the parent or the search path first */
+    private volatile DelegationPolicy delegationPolicy = DelegationPolicy.PARENT_FIRST;
+    /* The classes defined by this loader, found without the name conversion of findLoadedClass */
+    private final ConcurrentMap<String, Class<?>> definedClasses = new ConcurrentHashMap<>();
+    /* Class bytes read ahead of time by a preload, taken by findClass */
+    private final ConcurrentMap<String, Resource> preloaded = new ConcurrentHashMap<>();
+    /* The classes and resources served while recording, null when not recording */
+    private volatile StartupRecording recording;
+    /* Bytes read ahead from an earlier recording, null when not replaying */
+    private volatile StartupReplay replay;
+    /* Reads the classes the defined classes refer to, null when not prefetching */
+    private volatile Prefetcher prefetcher;
+    /* The package attributes of the manifest of every code source, parsed once */
+    private final ConcurrentMap<URL, ManifestPackages> manifestPackages = new ConcurrentHashMap<>();
+    /* One protection domain (with its code source and permissions) per code source URL and signers */
+    private final ProtectionDomains protectionDomains = new ProtectionDomains() {
+        @Override
+        ProtectionDomain create(final CodeSource codeSource) {
+            return new ProtectionDomain(codeSource, getPermissions(codeSource), IvoNetClassLoader2.this, null);
+        }
+    };
+    /* Counters published through JMX */
+    private final LoaderMetrics metrics;
 
     /**
      * Constructs a new URLClassLoader for the given URLs. The URLs will be searched in the order specified for classes
@@ -77,8 +124,9 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         if (security != null) {
             security.checkCreateClassLoader();
         }
-        urlClassPath = new URLClassPath(urls);
+        classPath = new ClassPathIndex(urls, null, null);
         this.accessControlContext = AccessController.getContext();
+        metrics = LoaderMetrics.register(this, classPath, closeables);
     }
 
     IvoNetClassLoader2(final URL[] urls, final ClassLoader parent,
@@ -89,8 +137,9 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         if (security != null) {
             security.checkCreateClassLoader();
         }
-        urlClassPath = new URLClassPath(urls);
+        classPath = new ClassPathIndex(urls, null, null);
         this.accessControlContext = context;
+        metrics = LoaderMetrics.register(this, classPath, closeables);
     }
 
     /**
@@ -113,8 +162,9 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         if (security != null) {
             security.checkCreateClassLoader();
         }
-        urlClassPath = new URLClassPath(urls);
+        classPath = new ClassPathIndex(urls, null, null);
         this.accessControlContext = AccessController.getContext();
+        metrics = LoaderMetrics.register(this, classPath, closeables);
     }
 
     IvoNetClassLoader2(final URL[] urls, final AccessControlContext context) {
@@ -123,11 +173,12 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         if (security != null) {
             security.checkCreateClassLoader();
         }
-        urlClassPath = new URLClassPath(urls);
+        classPath = new ClassPathIndex(urls, null, null);
         this.accessControlContext = context;
+        metrics = LoaderMetrics.register(this, classPath, closeables);
     }
 
-    /* A map (used as a set) to keep track of closeable local resources
+    /* A registry to keep track of closeable local resources
      * (either JarFiles or FileInputStreams). We don't care about
      * Http resources since they don't need to be closed.
      *
@@ -164,8 +215,38 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         if (security != null) {
             security.checkCreateClassLoader();
         }
-        urlClassPath = new URLClassPath(urls, factory);
+        classPath = new ClassPathIndex(urls, factory, null);
         accessControlContext = AccessController.getContext();
+        metrics = LoaderMetrics.register(this, classPath, closeables);
+    }
+
+    /**
+     * Constructs a new URLClassLoader for the specified URLs and parent class loader, serving the URLs that are in the
+     * given {@link ClassArchive} from that archive. URLs that are not in the archive, or that changed since the
+     * archive was written, are searched as usual.
+     * <p/>
+     * <p>If there is a security manager, this method first calls the security manager's {@code checkCreateClassLoader}
+     * method to ensure creation of a class loader is allowed.
+     *
+     * @param urls    the URLs from which to load classes and resources
+     * @param parent  the parent class loader for delegation
+     * @param archive the archive holding (some of) the URLs
+     * @throws SecurityException if a security manager exists and its {@code checkCreateClassLoader} method doesn't
+     *                           allow creation of a class loader.
+     * @see SecurityManager#checkCreateClassLoader
+     * @see ClassArchive#write(URL[], java.io.File)
+     */
+    public IvoNetClassLoader2(final URL[] urls, final ClassLoader parent,
+                              final ClassArchive archive) {
+        super(parent);
+        // this is to make the stack depth consistent with 1.1
+        final SecurityManager security = System.getSecurityManager();
+        if (security != null) {
+            security.checkCreateClassLoader();
+        }
+        classPath = new ClassPathIndex(urls, null, archive);
+        accessControlContext = AccessController.getContext();
+        metrics = LoaderMetrics.register(this, classPath, closeables);
     }
 
     /**
@@ -228,20 +309,19 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
             if (url == null) {
                 return null;
             }
+            final StartupReplay currentReplay = replay;
+            final InputStream replayed = (currentReplay == null) ? null : currentReplay.takeResource(name, url);
+            if (replayed != null) {
+                return replayed;
+            }
             final URLConnection urlConnection = url.openConnection();
             final InputStream is = urlConnection.getInputStream();
             if (urlConnection instanceof JarURLConnection) {
                 final JarURLConnection juc = (JarURLConnection) urlConnection;
                 final JarFile jar = juc.getJarFile();
-                synchronized (closeables) {
-                    if (!closeables.containsKey(jar)) {
-                        closeables.put(jar, null);
-                    }
-                }
+                closeables.register(jar);
             } else if (urlConnection instanceof sun.net.www.protocol.file.FileURLConnection) {
-                synchronized (closeables) {
-                    closeables.put(is, null);
-                }
+                closeables.register(is);
             }
             return is;
         } catch (IOException ignored) {
@@ -277,21 +357,14 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         if (security != null) {
             security.checkPermission(new RuntimePermission("closeClassLoader"));
         }
-        final List<IOException> errors = urlClassPath.closeLoaders();
+        stopReplay();
+        stopPrefetch();
+        metrics.unregister();
+        final List<IOException> errors = classPath.closeLoaders();
 
         // now close any remaining streams.
 
-        synchronized (closeables) {
-            final Set<Closeable> keys = closeables.keySet();
-            for (final Closeable closeable : keys) {
-                try {
-                    closeable.close();
-                } catch (IOException ioex) {
-                    errors.add(ioex);
-                }
-            }
-            closeables.clear();
-        }
+        errors.addAll(closeables.closeAll());
 
         if (errors.isEmpty()) {
             return;
@@ -308,7 +381,8 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
     }
 
     /**
-     * Appends the specified URL to the list of URLs to search for classes and resources.
+     * Appends the specified URL to the list of URLs to search for classes and resources. The packages in the URL are
+     * indexed right away when it refers to a local JAR file.
      * <p/>
      * If the URL specified is {@code null} or is already in the list of URLs, or if this loader is closed, then
      * invoking this method has no effect.
@@ -316,7 +390,7 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
      * @param url the URL to be added to the search path of URLs
      */
     protected void addURL(final URL url) {
-        urlClassPath.addURL(url);
+        classPath.addURL(url);
     }
 
     /**
@@ -326,12 +400,12 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
      * @return the search path of URLs for loading classes and resources.
      */
     public URL[] getURLs() {
-        return urlClassPath.getURLs();
+        return classPath.getURLs();
     }
 
     /**
-     * Finds and loads the class with the specified name from the URL search path. Any URLs referring to JAR files are
-     * loaded and opened as needed until the class is found.
+     * Finds and loads the class with the specified name from the URL search path. Only the URLs that contain the
+     * package of the class (and the URLs that could not be indexed) are searched.
      *
      * @param name the name of the class
      * @return the resulting class
@@ -340,29 +414,474 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
     @Override
     protected Class<?> findClass(final String name)
             throws ClassNotFoundException {
+        final Class<?> c = tryFindClass(name);
+        if (c == null) {
+            // a plain miss, the stack trace would only tell that it came from here
+            throw new StacklessClassNotFoundException(name);
+        }
+        return c;
+    }
+
+    /**
+     * Finds and loads the class with the specified name from the URL search path like {@link #findClass(String)}, but
+     * reports a class that is not there by returning {@code null} instead of throwing an exception. Names that were
+     * not found before are not searched for again until the search path changes.
+     *
+     * @param name the name of the class
+     * @return the resulting class or {@code null} if the class could not be found, or if the loader is closed.
+     * @throws ClassNotFoundException if the class was found but could not be read
+     */
+    protected Class<?> tryFindClass(final String name)
+            throws ClassNotFoundException {
+        if (!privileged) {
+            return findOnClassPath(name);
+        }
         try {
             return AccessController.doPrivileged(
-                    new PrivilegedExceptionAction<Class>() {
+                    new PrivilegedExceptionAction<Class<?>>() {
                         @Override
-                        public Class run() throws ClassNotFoundException {
-                            final String path = name.replace('.', '/') + ".class";
-                            final Resource res = urlClassPath.getResource(path, false);
-                            if (res != null) {
-                                try {
-                                    return defineClass(name, res);
-                                } catch (IOException e) {
-                                    throw new ClassNotFoundException(name, e);
-                                }
-                            } else {
-                                throw new ClassNotFoundException(name);
-                            }
+                        public Class<?> run() throws ClassNotFoundException {
+                            return findOnClassPath(name);
                         }
                     }, accessControlContext);
-        } catch (java.security.PrivilegedActionException pae) {
+        } catch (PrivilegedActionException pae) {
             throw (ClassNotFoundException) pae.getException();
         }
     }
 
+    private Class<?> findOnClassPath(final String name) throws ClassNotFoundException {
+        final LoaderEvents.FindClass event = LoaderEvents.findClass();
+        final Resource readAhead = takeReadAhead(name);
+        final Resource res = (readAhead != null) ? readAhead : classPath.getClassResource(name, false);
+        if (res == null) {
+            metrics.findClassMissed();
+            if (event != null) {
+                event.commit(metrics.getName(), name, null);
+            }
+            return null;
+        }
+        final Class<?> c;
+        try {
+            c = defineClass(name, res);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        definedClasses.put(name, c);
+        final StartupRecording currentRecording = recording;
+        if (currentRecording != null) {
+            currentRecording.record(StartupRecording.Kind.CLASS, name);
+        }
+        if (event != null) {
+            event.commit(metrics.getName(), name, res);
+        }
+        return c;
+    }
+
+    /*
+     * Takes the bytes of the class if a preload, replay or prefetch read them
+     * already.
+     */
+    private Resource takeReadAhead(final String name) {
+        final Resource preloadedRes = preloaded.remove(name);
+        if (preloadedRes != null) {
+            return preloadedRes;
+        }
+        final StartupReplay currentReplay = replay;
+        final Resource replayed = (currentReplay == null) ? null : currentReplay.takeClass(name);
+        if (replayed != null) {
+            return replayed;
+        }
+        final Prefetcher currentPrefetcher = prefetcher;
+        return (currentPrefetcher == null) ? null : currentPrefetcher.takeClass(name);
+    }
+
+    /**
+     * Sets the policy deciding whether the parent class loader or the URL search path of this loader is searched
+     * first. The default is {@link DelegationPolicy#PARENT_FIRST}.
+     *
+     * @param delegationPolicy the policy to use for all classes loaded from now on
+     */
+    public void setDelegationPolicy(final DelegationPolicy delegationPolicy) {
+        if (delegationPolicy == null) {
+            throw new NullPointerException("delegationPolicy");
+        }
+        this.delegationPolicy = delegationPolicy;
+    }
+
+    /**
+     * @return the policy deciding whether the parent class loader or the URL search path is searched first
+     */
+    public DelegationPolicy getDelegationPolicy() {
+        return delegationPolicy;
+    }
+
+    /**
+     * Loads the class with the specified name. After checking whether the class was already loaded, the parent class
+     * loader and the URL search path of this loader are searched in the order the {@link DelegationPolicy} decides
+     * for the package of the class. A class this loader defined is returned without taking the class loading lock.
+     *
+     * @param name    the binary name of the class
+     * @param resolve if true then resolve the class
+     * @return the resulting class
+     * @throws ClassNotFoundException if the class could not be found
+     */
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve)
+            throws ClassNotFoundException {
+        final Class<?> defined = definedClasses.get(name);
+        if (defined != null) {
+            if (resolve) {
+                resolveClass(defined);
+            }
+            return defined;
+        }
+        synchronized (getClassLoadingLock(name)) {
+            final Class<?> c = loadClassOrNull(name);
+            if (c == null) {
+                throw new StacklessClassNotFoundException(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Loads the class with the specified name like {@link #loadClass(String)}, but returns {@code null} instead of
+     * throwing a {@link ClassNotFoundException} when the class can not be loaded. Parents that are probes themselves
+     * are asked without exceptions as well, so a miss through a chain of these loaders costs no exceptions at all. A
+     * subclass that overrides {@link #loadClass(String, boolean)} has to override this method the same way, or its
+     * children ask it with {@code loadClass} again.
+     *
+     * @param name the binary name of the class
+     * @return the resulting class or {@code null} if it could not be found or read
+     */
+    @Override
+    public Class<?> tryLoadClass(final String name) {
+        final Class<?> defined = definedClasses.get(name);
+        if (defined != null) {
+            return defined;
+        }
+        synchronized (getClassLoadingLock(name)) {
+            try {
+                return loadClassOrNull(name);
+            } catch (ClassNotFoundException ignored) {
+                // found but unreadable, which is a miss for a probe
+                return null;
+            }
+        }
+    }
+
+    /*
+     * Loads the class in the order of the delegation policy. Must be called
+     * holding the class loading lock of the name.
+     */
+    private Class<?> loadClassOrNull(final String name) throws ClassNotFoundException {
+        Class<?> c = definedClasses.get(name);
+        if (c != null) {
+            return c;
+        }
+        if (delegationPolicy.isParentFirst(name)) {
+            c = loadFromParent(name);
+            if (c == null) {
+                c = loadLocal(name);
+            }
+        } else {
+            c = loadLocal(name);
+            if (c == null) {
+                c = loadFromParent(name);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the class with the given name if this loader defined it, without the copy of the name {@link
+     * #findLoadedClass(String)} makes for the JVM.
+     *
+     * @param name the binary name of the class
+     * @return the class or {@code null} if this loader did not define it
+     */
+    final Class<?> findDefinedClass(final String name) {
+        return definedClasses.get(name);
+    }
+
+    /**
+     * Lists the package paths the search path has class files in, see {@link ClassPathIndex#getClassPackagePaths()}.
+     *
+     * @return the '/' separated package paths or {@code null} if that is not known for every URL
+     */
+    final Set<String> getClassPackagePaths() {
+        return classPath.getClassPackagePaths();
+    }
+
+    /*
+     * findLoadedClass also knows the classes this loader was only the
+     * initiating loader of. It copies the name for the JVM on every call, so
+     * it is only asked when the name is not one of the defined classes.
+     */
+    private Class<?> loadLocal(final String name) throws ClassNotFoundException {
+        final Class<?> c = findLoadedClass(name);
+        return (c != null) ? c : tryFindClass(name);
+    }
+
+    private Class<?> loadFromParent(final String name) {
+        final ClassLoader parent = parentLoader;
+        final ClassProbe probe = ClassProbe.of(parent);
+        try {
+            if (probe != null) {
+                return probe.tryLoadClass(name);
+            } else if (parent != null) {
+                return parent.loadClass(name);
+            }
+            return BootstrapProbe.find(name);
+        } catch (ClassNotFoundException ignored) {
+            // not found in the parent
+            return null;
+        }
+    }
+
+    /**
+     * Loads the given classes in parallel on the common {@link ForkJoinPool} without initializing them. See {@link
+     * #preload(Collection, boolean, ForkJoinPool)}.
+     *
+     * @param names the binary names of the classes to load
+     * @return the per class timings and failures
+     */
+    public PreloadResult preload(final Collection<String> names) {
+        return preload(names, false, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads the given classes in parallel, e.g. at startup with a list of classes logged during an earlier run. The
+     * class files are read in parallel and every class is loaded (with the normal delegation) after its super class
+     * and interfaces from the same search path have been loaded. Classes that can not be loaded are reported in the
+     * result instead of failing the whole preload.
+     * <p/>
+     * The JVM only links (verifies) a class when it is initialized, so to have the classes linked ahead of time they
+     * have to be initialized as well, running their static initializers on the pool.
+     *
+     * @param names      the binary names of the classes to load
+     * @param initialize whether to link and initialize the classes as well
+     * @param pool       the pool to read and define the classes on
+     * @return the per class timings and failures
+     */
+    public PreloadResult preload(final Collection<String> names, final boolean initialize, final ForkJoinPool pool) {
+        return new Preloader() {
+            @Override
+            boolean isLoaded(final String name) {
+                return findLoadedClass(name) != null;
+            }
+
+            @Override
+            void expect(final Collection<String> classes) {
+                final List<String> paths = new ArrayList<>(classes.size());
+                for (final String name : classes) {
+                    paths.add(classFile(name));
+                }
+                classPath.expect(paths);
+            }
+
+            @Override
+            BufferedResource read(final String name) throws IOException {
+                final Resource res;
+                if (!privileged) {
+                    res = classPath.getClassResource(name, false);
+                } else {
+                    res = AccessController.doPrivileged(
+                            new PrivilegedAction<Resource>() {
+                                @Override
+                                public Resource run() {
+                                    return classPath.getClassResource(name, false);
+                                }
+                            }, accessControlContext);
+                }
+                return (res == null) ? null : BufferedResource.read(res);
+            }
+
+            @Override
+            void load(final String name, final BufferedResource resource) throws ClassNotFoundException {
+                preloaded.put(name, resource);
+                try {
+                    Class.forName(name, initialize, IvoNetClassLoader2.this);
+                } finally {
+                    // not taken if the class was found in the parent
+                    preloaded.remove(name, resource);
+                }
+            }
+        }.preload(names, pool);
+    }
+
+    /**
+     * Starts recording the classes this loader defines and the resources it finds, in the order they are served. A
+     * recording that was already running is started over.
+     *
+     * @see #stopRecording(File)
+     */
+    public void startRecording() {
+        recording = new StartupRecording();
+    }
+
+    /**
+     * Stops recording and writes the recording to a file, to be given to {@link #replay(File)} on a next start.
+     *
+     * @param file the file to (over)write
+     * @throws IOException           if the file could not be written
+     * @throws IllegalStateException if this loader is not recording
+     */
+    public void stopRecording(final File file) throws IOException {
+        final StartupRecording stopped = recording;
+        if (stopped == null) {
+            throw new IllegalStateException("Not recording");
+        }
+        recording = null;
+        stopped.write(file);
+    }
+
+    /**
+     * Replays a recording on two background threads with a budget of 64MB. See {@link #replay(File, int, int)}.
+     *
+     * @param file the recording written by {@link #stopRecording(File)}
+     * @throws IOException if the recording could not be read
+     */
+    public void replay(final File file) throws IOException {
+        replay(file, 2, 64 << 20);
+    }
+
+    /**
+     * Reads the classes and resources of an earlier recording on background threads, in the recorded order, so they
+     * are in memory by the time they are asked for. This pays off when the order in which classes are loaded is the
+     * same on every start. The bytes held in memory are bounded by the budget, everything not asked for is dropped
+     * when the replay is stopped or this loader is closed.
+     *
+     * @param file     the recording written by {@link #stopRecording(File)}
+     * @param threads  the number of threads to read with
+     * @param maxBytes the maximum number of bytes to hold in memory
+     * @throws IOException if the recording could not be read
+     */
+    public void replay(final File file, final int threads, final int maxBytes) throws IOException {
+        final List<StartupRecording.Record> records = StartupRecording.read(file);
+        final List<String> paths = new ArrayList<>(records.size());
+        for (final StartupRecording.Record record : records) {
+            paths.add((record.getKind() == StartupRecording.Kind.CLASS) ? classFile(record.getName())
+                                                                        : record.getName());
+        }
+        classPath.expect(paths);
+        final StartupReplay started = new StartupReplay(records, maxBytes, metrics) {
+            @Override
+            Resource lookup(final String path) {
+                return readAhead(path);
+            }
+
+            @Override
+            boolean isLoaded(final String name) {
+                return findLoadedClass(name) != null;
+            }
+        };
+        stopReplay();
+        replay = started;
+        started.start(threads, getClass().getSimpleName() + "-replay");
+    }
+
+    private static String classFile(final String name) {
+        return name.replace('.', '/').concat(".class");
+    }
+
+    /*
+     * Looks up the resource a replay or prefetch reads ahead.
+     */
+    private Resource readAhead(final String path) {
+        if (!privileged) {
+            return classPath.getResource(path, false);
+        }
+        return AccessController.doPrivileged(
+                new PrivilegedAction<Resource>() {
+                    @Override
+                    public Resource run() {
+                        return classPath.getResource(path, false);
+                    }
+                }, accessControlContext);
+    }
+
+    /**
+     * Stops a replay started by {@link #replay(File, int, int)} and drops the bytes that were not asked for.
+     */
+    public void stopReplay() {
+        final StartupReplay stopped = replay;
+        replay = null;
+        if (stopped != null) {
+            stopped.stop();
+        }
+    }
+
+    /**
+     * Prefetches two steps deep on two background threads with a budget of 16MB. See
+     * {@link #startPrefetch(int, int, int)}.
+     */
+    public void startPrefetch() {
+        startPrefetch(2, 2, 16 << 20);
+    }
+
+    /**
+     * Reads the classes a class refers to on background threads while the class is being defined, so they are in
+     * memory by the time the JVM resolves them. The names are taken from the constant pool of the class file and
+     * followed up to the given depth. The bytes held in memory are bounded by the budget, the oldest classes not asked
+     * for are dropped to make room, and everything not asked for is dropped when the prefetch is stopped or this
+     * loader is closed. How many classes were asked for and how many were dropped is published as the PrefetchHits
+     * and PrefetchWasted of the {@link LoaderMetricsMXBean}.
+     *
+     * @param depth    how many steps to follow the constant pools from a defined class, 1 for only the classes it
+     *                 refers to itself
+     * @param threads  the number of threads to read with
+     * @param maxBytes the maximum number of bytes to hold in memory
+     */
+    public void startPrefetch(final int depth, final int threads, final int maxBytes) {
+        final Prefetcher started = new Prefetcher(depth, threads, maxBytes, getClass().getSimpleName() + "-prefetch",
+                                                  metrics) {
+            @Override
+            Resource lookup(final String path) {
+                return readAhead(path);
+            }
+
+            @Override
+            boolean isLoaded(final String name) {
+                return findLoadedClass(name) != null;
+            }
+
+            @Override
+            void expect(final List<String> paths) {
+                classPath.expect(paths);
+            }
+        };
+        stopPrefetch();
+        prefetcher = started;
+    }
+
+    /**
+     * Stops a prefetch started by {@link #startPrefetch(int, int, int)} and drops the bytes that were not asked for.
+     */
+    public void stopPrefetch() {
+        final Prefetcher stopped = prefetcher;
+        prefetcher = null;
+        if (stopped != null) {
+            stopped.stop();
+        }
+    }
+
+    /**
+     * Returns the lock object for loading the class with the specified name. This loader is registered as parallel
+     * capable so classes with different names are loaded in parallel. The lock objects are only kept as long as they
+     * are in use, so probing for lots of different names does not leave a lock behind for every one of them.
+     *
+     * @param className the name of the class to be loaded
+     * @return the lock for the class loading operation
+     */
+    @Override
+    protected Object getClassLoadingLock(final String className) {
+        return classLoadingLocks.get(className);
+    }
+
     /*
      * Retrieve the package using the specified package name.
      * If non-null, verify the package using the specified code
@@ -382,7 +901,7 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
             } else {
                 // Make sure we are not attempting to seal the package
                 // at this code source URL.
-                if ((man != null) && isSealed(pkgname, man)) {
+                if ((man != null) && packageMetadata(pkgname, man, url).isSealed()) {
                     throw new SecurityException(
                             "sealing violation: can't seal package " + pkgname +
                             ": already loaded");
@@ -399,6 +918,7 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
      */
     private Class defineClass(final String name, final Resource res) throws IOException {
         final long t0 = System.nanoTime();
+        final LoaderEvents.DefineClass event = LoaderEvents.defineClass();
         final int i = name.lastIndexOf('.');
         final URL url = res.getCodeSourceURL();
         if (i != -1) {
@@ -406,6 +926,7 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
             // Check if package already loaded.
             final Manifest man = res.getManifest();
             if (getAndVerifyPackage(pkgname, man, url) == null) {
+                final LoaderEvents.DefinePackage packageEvent = LoaderEvents.definePackage();
                 try {
                     if (man != null) {
                         definePackage(pkgname, man, url);
@@ -421,30 +942,62 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
                                                  pkgname);
                     }
                 }
+                if (packageEvent != null) {
+                    packageEvent.commit(metrics.getName(), pkgname, url);
+                }
             }
         }
         // Now read the class bytes and define the class
         final java.nio.ByteBuffer byteBuffer = res.getByteBuffer();
         if (byteBuffer != null) {
             // Use (direct) ByteBuffer:
-            final CodeSigner[] signers = res.getCodeSigners();
-            final CodeSource cs = new CodeSource(url, signers);
+            final ProtectionDomain domain = protectionDomains.get(url, res.getCodeSigners());
             sun.misc.PerfCounter.getReadClassBytesTime().addElapsedTimeFrom(t0);
-            return defineClass(name, byteBuffer, cs);
+            final long t1 = System.nanoTime();
+            metrics.classRead(t1 - t0, byteBuffer.remaining());
+            final Prefetcher currentPrefetcher = prefetcher;
+            if (currentPrefetcher != null) {
+                currentPrefetcher.scan(byteBuffer);
+            }
+            try {
+                final int size = byteBuffer.remaining();
+                final Class<?> c = defineClass(name, byteBuffer, domain);
+                metrics.classDefined(System.nanoTime() - t1);
+                if (event != null) {
+                    event.commit(metrics.getName(), name, url, size);
+                }
+                return c;
+            } finally {
+                // the bytes of a mapped jar may be in a buffer that is reused for the next class
+                if (res instanceof MappedJarEntry.MappedResource) {
+                    ((MappedJarEntry.MappedResource) res).release();
+                }
+            }
         } else {
             final byte[] bytes = res.getBytes();
             // must read certificates AFTER reading bytes.
-            final CodeSigner[] signers = res.getCodeSigners();
-            final CodeSource cs = new CodeSource(url, signers);
+            final ProtectionDomain domain = protectionDomains.get(url, res.getCodeSigners());
             sun.misc.PerfCounter.getReadClassBytesTime().addElapsedTimeFrom(t0);
-            return defineClass(name, bytes, 0, bytes.length, cs);
+            final long t1 = System.nanoTime();
+            metrics.classRead(t1 - t0, bytes.length);
+            final Prefetcher currentPrefetcher = prefetcher;
+            if (currentPrefetcher != null) {
+                currentPrefetcher.scan(java.nio.ByteBuffer.wrap(bytes));
+            }
+            final Class<?> c = defineClass(name, bytes, 0, bytes.length, domain);
+            metrics.classDefined(System.nanoTime() - t1);
+            if (event != null) {
+                event.commit(metrics.getName(), name, url, bytes.length);
+            }
+            return c;
         }
     }
 
     /**
      * Defines a new package by name in this ClassLoader. The attributes contained in the specified Manifest will be
      * used to obtain package version and sealing information. For sealed packages, the additional URL specifies the
-     * code source URL from which the package was loaded.
+     * code source URL from which the package was loaded. The package attributes of a manifest are parsed only once per
+     * code source URL.
      *
      * @param name the package name
      * @param man  the Manifest containing package version and sealing information
@@ -455,78 +1008,32 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
      */
     protected Package definePackage(final String name, final Manifest man, final URL url)
             throws IllegalArgumentException {
-        final String path = name.replace('.', '/') + '/';
-        String specTitle = null;
-        String specVersion = null;
-        String specVendor = null;
-        String implTitle = null;
-        String implVersion = null;
-        String implVendor = null;
-        String sealed = null;
-        URL sealBase = null;
-
-        final Attributes attr = man.getAttributes(path);
-        if (attr != null) {
-            specTitle = attr.getValue(Attributes.Name.SPECIFICATION_TITLE);
-            specVersion = attr.getValue(Attributes.Name.SPECIFICATION_VERSION);
-            specVendor = attr.getValue(Attributes.Name.SPECIFICATION_VENDOR);
-            implTitle = attr.getValue(Attributes.Name.IMPLEMENTATION_TITLE);
-            implVersion = attr.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
-            implVendor = attr.getValue(Attributes.Name.IMPLEMENTATION_VENDOR);
-            sealed = attr.getValue(Attributes.Name.SEALED);
-        }
-        final Attributes mainAttributes = man.getMainAttributes();
-        if (mainAttributes != null) {
-            if (specTitle == null) {
-                specTitle = mainAttributes.getValue(Attributes.Name.SPECIFICATION_TITLE);
-            }
-            if (specVersion == null) {
-                specVersion = mainAttributes.getValue(Attributes.Name.SPECIFICATION_VERSION);
-            }
-            if (specVendor == null) {
-                specVendor = mainAttributes.getValue(Attributes.Name.SPECIFICATION_VENDOR);
-            }
-            if (implTitle == null) {
-                implTitle = mainAttributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE);
-            }
-            if (implVersion == null) {
-                implVersion = mainAttributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
-            }
-            if (implVendor == null) {
-                implVendor = mainAttributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR);
-            }
-            if (sealed == null) {
-                sealed = mainAttributes.getValue(Attributes.Name.SEALED);
-            }
-        }
-        if ("true".equalsIgnoreCase(sealed)) {
-            sealBase = url;
-        }
-        return definePackage(name, specTitle, specVersion, specVendor,
-                             implTitle, implVersion, implVendor, sealBase);
+        final ManifestPackages.Metadata metadata = packageMetadata(name, man, url);
+        return definePackage(name, metadata.getSpecTitle(), metadata.getSpecVersion(), metadata.getSpecVendor(),
+                             metadata.getImplTitle(), metadata.getImplVersion(), metadata.getImplVendor(),
+                             metadata.isSealed() ? url : null);
     }
 
     /*
-     * Returns true if the specified package name is sealed according to the
-     * given manifest.
+     * Returns the attributes of the package in the manifest, which is
+     * parsed only once for every code source.
      */
-    private boolean isSealed(final String name, final Manifest man) {
-        final String path = name.replace('.', '/').concat("/");
-        Attributes attr = man.getAttributes(path);
-        String sealed = null;
-        if (attr != null) {
-            sealed = attr.getValue(Attributes.Name.SEALED);
+    private ManifestPackages.Metadata packageMetadata(final String name, final Manifest man, final URL url) {
+        if (url == null) {
+            return ManifestPackages.parse(man).get(name);
         }
-        if (sealed == null) {
-            if ((attr = man.getMainAttributes()) != null) {
-                sealed = attr.getValue(Attributes.Name.SEALED);
-            }
+        ManifestPackages packages = manifestPackages.get(url);
+        if ((packages == null) || !packages.isFor(man)) {
+            packages = ManifestPackages.parse(man);
+            manifestPackages.put(url, packages);
         }
-        return "true".equalsIgnoreCase(sealed);
+        return packages.get(name);
     }
 
     /**
-     * Finds the resource with the specified name on the URL search path.
+     * Finds the resource with the specified name on the URL search path. Only the URLs that contain the package path
+     * of the resource (and the URLs that could not be indexed) are searched. The URL found, or that nothing was found,
+     * is cached until the search path changes.
      *
      * @param name the name of the resource
      * @return a {@code URL} for the resource, or {@code null} if the resource could not be found, or if the loader is
@@ -537,20 +1044,35 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         /*
          * The same restriction to finding classes applies to resources
          */
-        final URL url = AccessController.doPrivileged(
-                new PrivilegedAction<URL>() {
-                    @Override
-                    public URL run() {
-                        return urlClassPath.findResource(name, true);
-                    }
-                }, accessControlContext);
+        metrics.resourceLookedUp();
+        final LoaderEvents.FindResource event = LoaderEvents.findResource();
+        final URL url;
+        if (!privileged) {
+            url = classPath.findResource(name, true);
+        } else {
+            url = AccessController.doPrivileged(
+                    new PrivilegedAction<URL>() {
+                        @Override
+                        public URL run() {
+                            return classPath.findResource(name, true);
+                        }
+                    }, accessControlContext);
+        }
 
-        return url != null ? urlClassPath.checkURL(url) : null;
+        final URL checked = url != null ? classPath.checkURL(url) : null;
+        final StartupRecording currentRecording = recording;
+        if ((checked != null) && (currentRecording != null)) {
+            currentRecording.record(StartupRecording.Kind.RESOURCE, name);
+        }
+        if (event != null) {
+            event.commit(metrics.getName(), name, checked);
+        }
+        return checked;
     }
 
     /**
      * Returns an Enumeration of URLs representing all of the resources on the URL search path having the specified
-     * name.
+     * name. The URLs found are cached until the search path changes.
      *
      * @param name the resource name
      * @return an {@code Enumeration} of {@code URL}s If the loader is closed, the Enumeration will be empty.
@@ -559,7 +1081,19 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
     @Override
     public Enumeration<URL> findResources(final String name)
             throws IOException {
-        final Enumeration<URL> e = urlClassPath.findResources(name, true);
+        metrics.resourceLookedUp();
+        final Enumeration<URL> e;
+        if (!privileged) {
+            e = classPath.findResources(name, true);
+        } else {
+            e = AccessController.doPrivileged(
+                    new PrivilegedAction<Enumeration<URL>>() {
+                        @Override
+                        public Enumeration<URL> run() {
+                            return classPath.findResources(name, true);
+                        }
+                    }, accessControlContext);
+        }
 
         return new URLEnumeration(e);
     }
@@ -584,6 +1118,7 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
      */
     @Override
     protected PermissionCollection getPermissions(final CodeSource codesource) {
+        final LoaderEvents.GetPermissions event = LoaderEvents.getPermissions();
         final PermissionCollection perms = super.getPermissions(codesource);
 
         final URL url = codesource.getLocation();
@@ -591,12 +1126,18 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
         Permission p;
         URLConnection urlConnection;
 
-        try {
-            urlConnection = url.openConnection();
-            p = urlConnection.getPermission();
-        } catch (IOException ignored) {
+        if (isLocalFile(url)) {
+            // the permission is derived from the path below, no need to open a connection for it
             p = null;
             urlConnection = null;
+        } else {
+            try {
+                urlConnection = url.openConnection();
+                p = urlConnection.getPermission();
+            } catch (IOException ignored) {
+                p = null;
+                urlConnection = null;
+            }
         }
 
         if (p instanceof FilePermission) {
@@ -649,10 +1190,25 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
             }
             perms.add(p);
         }
+        if (event != null) {
+            event.commit(metrics.getName(), url, p);
+        }
         return perms;
     }
 
 
+    /*
+     * A file: URL without an authority, of which the connection would only
+     * be opened to ask for a FilePermission on its path.
+     */
+    private static boolean isLocalFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return false;
+        }
+        final String host = url.getHost();
+        return (host == null) || host.isEmpty() || "localhost".equalsIgnoreCase(host);
+    }
+
     private class URLEnumeration implements Enumeration<URL> {
         private final Enumeration<URL> e;
         private URL url;
@@ -667,24 +1223,30 @@ public class IvoNetClassLoader2 extends SecureClassLoader implements Closeable {
                 return true;
             }
             do {
-                final URL u = AccessController.doPrivileged(
-                        new PrivilegedAction<URL>() {
-                            @Override
-                            public URL run() {
-                                if (!e.hasMoreElements()) {
-                                    return null;
+                final URL u;
+                if (!privileged) {
+                    u = nextOrNull();
+                } else {
+                    u = AccessController.doPrivileged(
+                            new PrivilegedAction<URL>() {
+                                @Override
+                                public URL run() {
+                                    return nextOrNull();
                                 }
-                                return e.nextElement();
-                            }
-                        }, accessControlContext);
+                            }, accessControlContext);
+                }
                 if (u == null) {
                     break;
                 }
-                url = urlClassPath.checkURL(u);
+                url = classPath.checkURL(u);
             } while (url == null);
             return url != null;
         }
 
+        private URL nextOrNull() {
+            return e.hasMoreElements() ? e.nextElement() : null;
+        }
+
         @Override
         public URL nextElement() {
             if (!next()) {
@@ -0,0 +1,160 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The mapped jars of all loaders in the process, shared and reference counted.
+ * <p/>
+ * A {@link MappedJarFile} is immutable once opened: its mapping, central directory, package paths and manifest are
+ * the same for every loader. Loaders that have the same jar on their search path (like one loader per tenant over the
+ * same libraries) get the same instance, so the jar is mapped and its central directory parsed and held once, however
+ * many loaders there are. Every {@link #open(File)} has to be matched by a {@link #release(MappedJarFile)}, which
+ * only drops the reference of that loader; the jar is forgotten when the last one is dropped. The jars are only
+ * referenced weakly here, so the jars of loaders that are never closed are still garbage collected with them.
+ * <p/>
+ * A jar is shared as long as its path, size and modification time stay the same. A jar that is replaced on disk is
+ * mapped again for the loaders that open it from then on, the loaders that have the old one keep it. The same goes for
+ * a jar that can not be mapped (signed, with a Class-Path or an index, too big): that is remembered, so the loaders
+ * after the first one do not read its central directory again to find out.
+ *
+ * @author Ivo Woltring
+ */
+final class JarRegistry {
+    /* Guarded by itself */
+    private static final Map<Key, Shared> JARS = new HashMap<>();
+    /* The jars that were rejected, looked up by Key.name() */
+    private static final LookupCache<Key> REJECTED = new LookupCache<>(LookupCache.DEFAULT_CAPACITY);
+
+    private JarRegistry() {
+    }
+
+    /**
+     * Opens a jar like {@link MappedJarFile#open(File)}, shared with the other loaders that opened it.
+     *
+     * @param file the jar file
+     * @return the mapped jar or {@code null} if the jar has to be read by the {@link sun.misc.URLClassPath}
+     * @throws IOException if the jar could not be read
+     */
+    static MappedJarFile open(final File file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * Opens a signed jar like {@link MappedJarFile#openSigned(File)}, shared with the other loaders that opened it.
+     *
+     * @param file the jar file
+     * @return the mapped jar or {@code null} if the jar is not signed or has to be read by the {@link
+     *         sun.misc.URLClassPath} for another reason
+     * @throws IOException if the jar could not be read
+     */
+    static MappedJarFile openSigned(final File file) throws IOException {
+        return open(file, true);
+    }
+
+    private static MappedJarFile open(final File file, final boolean signed) throws IOException {
+        final Key key = new Key(file, signed);
+        final int generation = REJECTED.generation();
+        if (key.equals(REJECTED.get(key.name()))) {
+            return null;
+        }
+        synchronized (JARS) {
+            final Shared shared = JARS.get(key);
+            final MappedJarFile jar = (shared == null) ? null : shared.jar.get();
+            if (jar != null) {
+                shared.references++;
+                return jar;
+            }
+        }
+        // mapped without holding the lock, another loader may do the same in the meantime
+        final MappedJarFile jar = signed ? MappedJarFile.openSigned(file) : MappedJarFile.open(file);
+        if (jar == null) {
+            REJECTED.put(key.name(), key, generation);
+            return null;
+        }
+        synchronized (JARS) {
+            final Shared shared = JARS.get(key);
+            final MappedJarFile raced = (shared == null) ? null : shared.jar.get();
+            if (raced != null) {
+                jar.close();
+                shared.references++;
+                return raced;
+            }
+            JARS.put(key, new Shared(jar));
+            return jar;
+        }
+    }
+
+    /**
+     * Drops a reference to a jar opened through this registry.
+     *
+     * @param jar the jar
+     */
+    static void release(final MappedJarFile jar) {
+        synchronized (JARS) {
+            final Iterator<Shared> iterator = JARS.values().iterator();
+            while (iterator.hasNext()) {
+                final Shared shared = iterator.next();
+                final MappedJarFile referenced = shared.jar.get();
+                if (referenced == null) {
+                    // its loaders were garbage collected without being closed
+                    iterator.remove();
+                } else if ((referenced == jar) && (--shared.references == 0)) {
+                    iterator.remove();
+                    jar.close();
+                }
+            }
+        }
+    }
+
+    private static final class Shared {
+        private final WeakReference<MappedJarFile> jar;
+        /* The entries that opened the jar and have not released it yet */
+        private int references = 1;
+
+        private Shared(final MappedJarFile jar) {
+            this.jar = new WeakReference<>(jar);
+        }
+    }
+
+    private static final class Key {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final boolean signed;
+
+        private Key(final File file, final boolean signed) {
+            path = file.getAbsolutePath();
+            length = file.length();
+            lastModified = file.lastModified();
+            this.signed = signed;
+        }
+
+        /*
+         * The same for every version of the jar, so a replaced jar takes the
+         * place of the old one.
+         */
+        private String name() {
+            return signed ? ("signed:" + path) : path;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return (length == key.length) && (lastModified == key.lastModified) && (signed == key.signed)
+                   && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * path.hashCode()) + (int) (lastModified ^ (lastModified >>> 32));
+        }
+    }
+}
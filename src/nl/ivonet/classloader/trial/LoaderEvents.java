@@ -0,0 +1,260 @@
+package nl.ivonet.classloader.trial;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import sun.misc.Resource;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.Permission;
+
+/**
+ * The Flight Recorder events of the loaders, to see where the time of a slow class load went: looking on the search
+ * path, reading and defining, defining the package or computing the permissions.
+ * <p/>
+ * The events follow the usual pattern of creating, {@code begin()}-ing and only filling in and committing them when
+ * {@code shouldCommit()}. When the event is not enabled its methods are empty, so the JIT removes the event
+ * altogether and they can be left in production code.
+ * <p/>
+ * The Flight Recorder API is only in JDK 8 from update 262 on. The loaders get their events from the factory methods
+ * here, which return {@code null} when {@code jdk.jfr.Event} can not be loaded, so they run on older updates too,
+ * without events.
+ *
+ * @author Ivo Woltring
+ */
+final class LoaderEvents {
+    private static final String CATEGORY = "IvoNet Class Loading";
+    private static final boolean AVAILABLE = available();
+
+    private LoaderEvents() {
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, LoaderEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a begun event or {@code null} if the Flight Recorder API is not available
+     */
+    static FindClass findClass() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        final FindClass event = new FindClass();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return a begun event or {@code null} if the Flight Recorder API is not available
+     */
+    static DefineClass defineClass() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        final DefineClass event = new DefineClass();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return a begun event or {@code null} if the Flight Recorder API is not available
+     */
+    static DefinePackage definePackage() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        final DefinePackage event = new DefinePackage();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return a begun event or {@code null} if the Flight Recorder API is not available
+     */
+    static FindResource findResource() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        final FindResource event = new FindResource();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return a begun event or {@code null} if the Flight Recorder API is not available
+     */
+    static GetPermissions getPermissions() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        final GetPermissions event = new GetPermissions();
+        event.begin();
+        return event;
+    }
+
+    private static String entry(final URL url) {
+        return (url == null) ? null : url.toExternalForm();
+    }
+
+    @Name("nl.ivonet.classloader.FindClass")
+    @Label("Find Class")
+    @Description("A class looked for on the search path of a loader")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class FindClass extends Event {
+        @Label("Loader")
+        String loader;
+
+        @Label("Class")
+        String className;
+
+        @Label("Found")
+        boolean found;
+
+        @Label("Entry")
+        @Description("The search path entry the class came from")
+        String entry;
+
+        @Label("Size")
+        @DataAmount
+        int size;
+
+        void commit(final String loader, final String className, final Resource res) {
+            if (shouldCommit()) {
+                this.loader = loader;
+                this.className = className;
+                found = res != null;
+                if (found) {
+                    entry = entry(res.getCodeSourceURL());
+                    try {
+                        size = res.getContentLength();
+                    } catch (IOException ignored) {
+                        size = -1;
+                    }
+                }
+                commit();
+            }
+        }
+    }
+
+    @Name("nl.ivonet.classloader.DefineClass")
+    @Label("Define Class")
+    @Description("A class read and defined by a loader, including the definition of its package")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class DefineClass extends Event {
+        @Label("Loader")
+        String loader;
+
+        @Label("Class")
+        String className;
+
+        @Label("Entry")
+        @Description("The search path entry the class came from")
+        String entry;
+
+        @Label("Size")
+        @DataAmount
+        int size;
+
+        void commit(final String loader, final String className, final URL entry, final int size) {
+            if (shouldCommit()) {
+                this.loader = loader;
+                this.className = className;
+                this.entry = entry(entry);
+                this.size = size;
+                commit();
+            }
+        }
+    }
+
+    @Name("nl.ivonet.classloader.DefinePackage")
+    @Label("Define Package")
+    @Description("A package defined by a loader, reading the manifest attributes when the entry has a manifest")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class DefinePackage extends Event {
+        @Label("Loader")
+        String loader;
+
+        @Label("Package")
+        String packageName;
+
+        @Label("Entry")
+        @Description("The search path entry the package came from")
+        String entry;
+
+        void commit(final String loader, final String packageName, final URL entry) {
+            if (shouldCommit()) {
+                this.loader = loader;
+                this.packageName = packageName;
+                this.entry = entry(entry);
+                commit();
+            }
+        }
+    }
+
+    @Name("nl.ivonet.classloader.FindResource")
+    @Label("Find Resource")
+    @Description("A resource looked for on the search path of a loader")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class FindResource extends Event {
+        @Label("Loader")
+        String loader;
+
+        @Label("Resource")
+        String resourceName;
+
+        @Label("URL")
+        @Description("The URL of the resource found")
+        String url;
+
+        void commit(final String loader, final String resourceName, final URL url) {
+            if (shouldCommit()) {
+                this.loader = loader;
+                this.resourceName = resourceName;
+                this.url = entry(url);
+                commit();
+            }
+        }
+    }
+
+    @Name("nl.ivonet.classloader.GetPermissions")
+    @Label("Get Permissions")
+    @Description("The permissions computed for a code source of a loader")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class GetPermissions extends Event {
+        @Label("Loader")
+        String loader;
+
+        @Label("Entry")
+        @Description("The location of the code source")
+        String entry;
+
+        @Label("Permission")
+        @Description("The permission added for the location")
+        String permission;
+
+        void commit(final String loader, final URL entry, final Permission permission) {
+            if (shouldCommit()) {
+                this.loader = loader;
+                this.entry = entry(entry);
+                this.permission = (permission == null) ? null : permission.toString();
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package nl.ivonet.classloader.trial;
+
+/**
+ * The metrics of all the registered loaders below a root loader added up, registered in the platform MBean server as
+ * {@code nl.ivonet.classloader:type=ClassLoaderHierarchy,root=<loader>}. A root loader is a loader without a
+ * registered ancestor.
+ *
+ * @author Ivo Woltring
+ */
+public interface LoaderHierarchyMXBean {
+
+    /**
+     * @return the name of the root loader
+     */
+    String getRoot();
+
+    /**
+     * @return the number of registered loaders in the hierarchy, including the root
+     */
+    int getLoaderCount();
+
+    /**
+     * @return the number of classes defined
+     */
+    long getClassesDefined();
+
+    /**
+     * @return the number of class file bytes read
+     */
+    long getBytesRead();
+
+    /**
+     * @return the nanoseconds spent reading class files and defining their packages
+     */
+    long getReadTimeNanos();
+
+    /**
+     * @return the nanoseconds spent defining (parsing) classes
+     */
+    long getDefineTimeNanos();
+
+    /**
+     * @return the number of classes looked for on the search paths but not found
+     */
+    long getFindClassMisses();
+
+    /**
+     * @return the number of resources looked for on the search paths
+     */
+    long getResourceLookups();
+
+    /**
+     * @return the number of findResource and findResources calls answered from the resource cache
+     */
+    long getResourceCacheHits();
+
+    /**
+     * @return the number of findResource and findResources calls that had to search the search paths
+     */
+    long getResourceCacheMisses();
+
+    /**
+     * @return the number of cached resource lookups evicted to make room
+     */
+    long getResourceCacheEvictions();
+
+    /**
+     * @return the number of classes defined from bytes a prefetch read ahead
+     */
+    long getPrefetchHits();
+
+    /**
+     * @return the number of classes a prefetch read ahead that were never defined from those bytes
+     */
+    long getPrefetchWasted();
+
+    /**
+     * @return the number of classes and resources served from bytes a startup replay read ahead
+     */
+    long getReplayHits();
+
+    /**
+     * @return the number of reads of a startup replay dropped because its budget was full or the resource was served
+     * from another URL
+     */
+    long getReplayDropped();
+
+    /**
+     * @return the number of jars on the search paths
+     */
+    int getOpenJars();
+
+    /**
+     * @return the number of distinct jars the loaders in this hierarchy have mapped: a jar on the search paths of
+     * several loaders is mapped and counted once
+     */
+    int getMappedJars();
+
+    /**
+     * @return the number of streams and jar files opened by getResourceAsStream that are still tracked for closing
+     */
+    int getOpenStreams();
+}
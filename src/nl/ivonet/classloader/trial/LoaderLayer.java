@@ -0,0 +1,298 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A graph of loaders in which every package belongs to one loader, like a layer of modules.
+ * <p/>
+ * Every loader in the layer has a name, a search path and the names of the loaders it reads, which have to be defined
+ * before it. A loader sees its own packages and those of the loaders it reads, directly or through other loaders.
+ * When the layer is built, the class packages on the search path of every loader are taken from the loader itself (the
+ * central directories its jars were indexed with and a listing of its directories) and every loader gets a map of the
+ * packages it sees to the loader that has them. A package that is in two of the loaders one loader sees is a split
+ * package, and the layer is not built. Loaders that do not see each other (like the loaders of two tenants that read
+ * the same library loader) can have the same packages.
+ * <p/>
+ * Loading a class of a package in the map goes straight to the loader that has it, which defines it from its own
+ * search path, instead of walking a chain of parents that all look for it first. The parent of the layer is only asked
+ * for classes of packages that are not in the map; those are looked for in the search path of the loader itself and
+ * then in those of the loaders it reads, as the packages of remote URLs and the like are not known up front.
+ * <p/>
+ * Usage:
+ * <pre>
+ * try (LoaderLayer layer = LoaderLayer.define(parent)
+ *                                     .with("lib", libraryUrls)
+ *                                     .with("tenant1", tenant1Urls, "lib")
+ *                                     .with("tenant2", tenant2Urls, "lib")
+ *                                     .build()) {
+ *     layer.getLoader("tenant1").loadClass("com.tenant.Main");
+ * }
+ * </pre>
+ *
+ * @author Ivo Woltring
+ */
+public final class LoaderLayer implements Closeable {
+    /* Name -> loader, in the order they were defined */
+    private final Map<String, LayerLoader> loaders;
+
+    private LoaderLayer(final Map<String, LayerLoader> loaders) {
+        this.loaders = loaders;
+    }
+
+    /**
+     * Starts the definition of a layer.
+     *
+     * @param parent the parent of all the loaders in the layer, may be {@code null} for the bootstrap loader
+     * @return an empty definition
+     */
+    public static Definition define(final ClassLoader parent) {
+        return new Definition(parent, Collections.<String, Definition.Node>emptyMap());
+    }
+
+    /**
+     * @param name the name the loader was defined with
+     * @return the loader
+     * @throws IllegalArgumentException if there is no loader with that name
+     */
+    public IvoNetClassLoader getLoader(final String name) {
+        final LayerLoader loader = loaders.get(name);
+        if (loader == null) {
+            throw new IllegalArgumentException("No loader named " + name);
+        }
+        return loader;
+    }
+
+    /**
+     * @return the names of the loaders in the order they were defined
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(loaders.keySet());
+    }
+
+    /**
+     * Finds the loader that has a package, as seen from a loader.
+     *
+     * @param name        the name of the loader
+     * @param packageName the name of the package
+     * @return the name of the loader that has the package or {@code null} if it is not in the packages the loader sees
+     */
+    public String getOwner(final String name, final String packageName) {
+        final LayerLoader owner = ((LayerLoader) getLoader(name)).owners.getPackage(packageName, '.');
+        return (owner == null) ? null : owner.name;
+    }
+
+    /**
+     * Closes all the loaders of the layer.
+     *
+     * @throws IOException if a loader could not be closed, the others are still closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (final LayerLoader loader : loaders.values()) {
+            try {
+                loader.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * The definition of a layer, immutable: every {@link #with(String, URL[], String...)} returns a new definition.
+     */
+    public static final class Definition {
+        private final ClassLoader parent;
+        private final Map<String, Node> nodes;
+
+        private Definition(final ClassLoader parent, final Map<String, Node> nodes) {
+            this.parent = parent;
+            this.nodes = nodes;
+        }
+
+        /**
+         * Returns a definition with the same loaders as this one, plus one more.
+         *
+         * @param name  the name of the loader
+         * @param urls  the search path of the loader
+         * @param reads the names of the loaders defined before whose packages the loader sees
+         * @return the new definition
+         * @throws IllegalArgumentException if the name is taken or a loader to read is not defined (yet)
+         */
+        public Definition with(final String name, final URL[] urls, final String... reads) {
+            if (nodes.containsKey(name)) {
+                throw new IllegalArgumentException("Loader " + name + " is already defined");
+            }
+            for (final String read : reads) {
+                if (!nodes.containsKey(read)) {
+                    throw new IllegalArgumentException("Loader " + name + " reads " + read + ", which is not defined");
+                }
+            }
+            final Map<String, Node> result = new LinkedHashMap<>(nodes);
+            result.put(name, new Node(urls.clone(), reads.clone()));
+            return new Definition(parent, Collections.unmodifiableMap(result));
+        }
+
+        /**
+         * Creates the loaders, lists their packages and checks for split packages.
+         *
+         * @return the layer
+         * @throws IllegalStateException if a loader sees a package in two loaders, the loaders are closed again
+         */
+        public LoaderLayer build() {
+            final Map<String, LayerLoader> loaders = new LinkedHashMap<>();
+            for (final Map.Entry<String, Node> node : nodes.entrySet()) {
+                loaders.put(node.getKey(), new LayerLoader(node.getKey(), node.getValue().urls, parent));
+            }
+            /* Name -> the loaders it sees, itself first */
+            final Map<String, List<LayerLoader>> visible = new HashMap<>();
+            /* Name -> the package paths it has class files in, null for unknown */
+            final Map<String, Set<String>> packages = new HashMap<>();
+            for (final Map.Entry<String, Node> node : nodes.entrySet()) {
+                final Set<LayerLoader> seen = new LinkedHashSet<>();
+                seen.add(loaders.get(node.getKey()));
+                for (final String read : node.getValue().reads) {
+                    seen.addAll(visible.get(read));
+                }
+                visible.put(node.getKey(), new ArrayList<>(seen));
+                packages.put(node.getKey(), loaders.get(node.getKey()).getClassPackagePaths());
+            }
+            for (final LayerLoader loader : loaders.values()) {
+                /* Package path -> the loader that has it */
+                final Map<String, LayerLoader> owned = new HashMap<>();
+                final List<LayerLoader> seen = visible.get(loader.name);
+                for (final LayerLoader other : seen) {
+                    final Set<String> has = packages.get(other.name);
+                    if (has == null) {
+                        // the packages the loader has are not all known, it owns none
+                        continue;
+                    }
+                    for (final String path : has) {
+                        final LayerLoader owner = owned.put(path, other);
+                        if (owner != null) {
+                            throw split(loaders, "Split package " + path.replace('/', '.') + ": in both "
+                                                 + owner.name + " and " + other.name + ", as seen by " + loader.name);
+                        }
+                    }
+                }
+                loader.link(owned, seen.subList(1, seen.size()).toArray(new LayerLoader[seen.size() - 1]));
+            }
+            return new LoaderLayer(loaders);
+        }
+
+        private static IllegalStateException split(final Map<String, LayerLoader> loaders, final String message) {
+            final IllegalStateException error = new IllegalStateException(message);
+            try {
+                new LoaderLayer(loaders).close();
+            } catch (IOException e) {
+                error.addSuppressed(e);
+            }
+            return error;
+        }
+
+        private static final class Node {
+            private final URL[] urls;
+            private final String[] reads;
+
+            private Node(final URL[] urls, final String[] reads) {
+                this.urls = urls;
+                this.reads = reads;
+            }
+        }
+    }
+
+    /**
+     * A loader of the layer: loads the classes of the packages it sees from the loader that has them.
+     */
+    private static final class LayerLoader extends IvoNetClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        private final String name;
+        /* Package path -> the loader that has it, for all packages this loader sees */
+        private PackageTable<LayerLoader> owners = new PackageTable<>(Collections.<String, LayerLoader>emptyMap());
+        /* The loaders this one reads, directly or not */
+        private LayerLoader[] reads = {};
+
+        private LayerLoader(final String name, final URL[] urls, final ClassLoader parent) {
+            super(urls, parent);
+            this.name = name;
+        }
+
+        /*
+         * Set once, before the layer is constructed: its final field makes
+         * these visible to every thread that gets the loader from it.
+         */
+        private void link(final Map<String, LayerLoader> owners, final LayerLoader[] reads) {
+            this.owners = new PackageTable<>(owners);
+            this.reads = reads;
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            final Class<?> c = route(name);
+            if (c == null) {
+                throw new StacklessClassNotFoundException(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+
+        @Override
+        public Class<?> tryLoadClass(final String name) {
+            try {
+                return route(name);
+            } catch (ClassNotFoundException ignored) {
+                // found but unreadable, which is a miss for a probe
+                return null;
+            }
+        }
+
+        private Class<?> route(final String name) throws ClassNotFoundException {
+            final LayerLoader owner = owners.get(name, '.');
+            if (owner != null) {
+                return owner.loadLocal(name);
+            }
+            Class<?> c = super.tryLoadClass(name);
+            for (int r = 0; (c == null) && (r < reads.length); r++) {
+                c = reads[r].loadLocal(name);
+            }
+            return c;
+        }
+
+        /*
+         * Loads the class from the search path of this loader only.
+         */
+        private Class<?> loadLocal(final String name) throws ClassNotFoundException {
+            final Class<?> loaded = findDefinedClass(name);
+            if (loaded != null) {
+                // no lock needed for a class that is already defined
+                return loaded;
+            }
+            synchronized (getClassLoadingLock(name)) {
+                final Class<?> c = findLoadedClass(name);
+                return (c != null) ? c : tryFindClass(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package nl.ivonet.classloader.trial;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * The counters of one loader, published as a {@link LoaderMetricsMXBean}. Loaders without a registered ancestor get a
+ * {@link LoaderHierarchyMXBean} as well, adding up the counters of all registered loaders below them.
+ * <p/>
+ * The MBeans are only published when the system property {@value #PUBLISH_PROPERTY} is {@code true}: creating a loader
+ * does not start the platform MBean server otherwise, counting works either way.
+ * <p/>
+ * The counters are {@link LongAdder}s, so counting on the class loading path does not contend between threads. The
+ * loader, its search path and the tracked streams are only referenced weakly: a loader that is never closed can still
+ * be garbage collected, its MBeans are unregistered the next time a loader registers.
+ *
+ * @author Ivo Woltring
+ */
+final class LoaderMetrics implements LoaderMetricsMXBean {
+    static final String PUBLISH_PROPERTY = "nl.ivonet.classloader.metrics";
+
+    private static final String DOMAIN = "nl.ivonet.classloader";
+    private static final boolean PUBLISH = Boolean.getBoolean(PUBLISH_PROPERTY);
+
+    /* Loader -> its registered metrics, changed and read while synchronized on it */
+    private static final Map<ClassLoader, LoaderMetrics> REGISTERED = new WeakHashMap<>();
+    /* The references to the registered loaders that were garbage collected */
+    private static final ReferenceQueue<ClassLoader> COLLECTED = new ReferenceQueue<>();
+
+    private final String name;
+    private final LoaderReference loader;
+    private final WeakReference<ClassPathIndex> classPath;
+    private final WeakReference<CloseableRegistry> closeables;
+    /* The nearest registered ancestor when this one was registered */
+    private LoaderMetrics parent;
+    private volatile boolean registered;
+
+    private final LongAdder classesDefined = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder defineNanos = new LongAdder();
+    private final LongAdder findClassMisses = new LongAdder();
+    private final LongAdder resourceLookups = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder prefetchWasted = new LongAdder();
+    private final LongAdder replayHits = new LongAdder();
+    private final LongAdder replayDropped = new LongAdder();
+
+    private LoaderMetrics(final ClassLoader loader, final ClassPathIndex classPath,
+                          final CloseableRegistry closeables) {
+        name = loader.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(loader));
+        this.loader = new LoaderReference(loader, this);
+        this.classPath = new WeakReference<>(classPath);
+        this.closeables = new WeakReference<>(closeables);
+    }
+
+    /**
+     * Creates the metrics of a loader and, if {@value #PUBLISH_PROPERTY} is set, registers its MBeans in the platform
+     * MBean server. Failing to register (e.g. not being allowed to) leaves the metrics unpublished, counting still
+     * works.
+     *
+     * @param loader     the loader
+     * @param classPath  the search path of the loader
+     * @param closeables the streams the loader tracks for closing
+     * @return the metrics to count on
+     */
+    static LoaderMetrics register(final ClassLoader loader, final ClassPathIndex classPath,
+                                  final CloseableRegistry closeables) {
+        final LoaderMetrics metrics = new LoaderMetrics(loader, classPath, closeables);
+        if (!PUBLISH) {
+            return metrics;
+        }
+        synchronized (REGISTERED) {
+            for (Reference<? extends ClassLoader> collected = COLLECTED.poll(); collected != null;
+                 collected = COLLECTED.poll()) {
+                ((LoaderReference) collected).metrics.unregister();
+            }
+            metrics.parent = findAncestor(loader);
+            REGISTERED.put(loader, metrics);
+            metrics.registered = true;
+            metrics.publish(true);
+        }
+        return metrics;
+    }
+
+    /*
+     * Finds the metrics of the nearest registered ancestor of the loader.
+     * Privileged, as getParent checks the getClassLoader permission.
+     */
+    private static LoaderMetrics findAncestor(final ClassLoader loader) {
+        return AccessController.doPrivileged(new PrivilegedAction<LoaderMetrics>() {
+            @Override
+            public LoaderMetrics run() {
+                for (ClassLoader ancestor = loader.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                    final LoaderMetrics registered = REGISTERED.get(ancestor);
+                    if (registered != null) {
+                        return registered;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Unregisters the MBeans of the loader, and the hierarchy if it is the root. Counting still works.
+     */
+    void unregister() {
+        synchronized (REGISTERED) {
+            if (registered) {
+                registered = false;
+                final ClassLoader owner = loader.get();
+                if (owner != null) {
+                    REGISTERED.remove(owner);
+                }
+                publish(false);
+            }
+        }
+    }
+
+    private void publish(final boolean register) {
+        AccessController.doPrivileged(new PrivilegedAction<Void>() {
+            @Override
+            public Void run() {
+                try {
+                    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    final ObjectName loaderName = new ObjectName(DOMAIN + ":type=ClassLoader,name=" + name);
+                    final ObjectName hierarchyName = new ObjectName(DOMAIN + ":type=ClassLoaderHierarchy,root=" + name);
+                    if (register) {
+                        server.registerMBean(LoaderMetrics.this, loaderName);
+                        if (parent == null) {
+                            server.registerMBean(new Hierarchy(LoaderMetrics.this), hierarchyName);
+                        }
+                    } else {
+                        server.unregisterMBean(loaderName);
+                        if (server.isRegistered(hierarchyName)) {
+                            server.unregisterMBean(hierarchyName);
+                        }
+                    }
+                } catch (JMException | SecurityException ignored) {
+                    // the metrics are not published, counting still works
+                }
+                return null;
+            }
+        });
+    }
+
+    /*
+     * The topmost registered loader this one belongs to.
+     */
+    private LoaderMetrics root() {
+        LoaderMetrics root = this;
+        for (LoaderMetrics ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor.registered) {
+                root = ancestor;
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Counts the reading of a class file.
+     *
+     * @param nanos the time it took
+     * @param bytes the size of the class file
+     */
+    void classRead(final long nanos, final int bytes) {
+        readNanos.add(nanos);
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Counts the definition of a class.
+     *
+     * @param nanos the time it took
+     */
+    void classDefined(final long nanos) {
+        defineNanos.add(nanos);
+        classesDefined.increment();
+    }
+
+    /**
+     * Counts a class that was not found on the search path.
+     */
+    void findClassMissed() {
+        findClassMisses.increment();
+    }
+
+    /**
+     * Counts a resource lookup on the search path.
+     */
+    void resourceLookedUp() {
+        resourceLookups.increment();
+    }
+
+    /**
+     * Counts a class taken from the bytes a prefetch read ahead.
+     */
+    void prefetchHit() {
+        prefetchHits.increment();
+    }
+
+    /**
+     * Counts a class a prefetch read ahead but that was dropped without being taken.
+     */
+    void prefetchWasted() {
+        prefetchWasted.increment();
+    }
+
+    /**
+     * Counts a class or resource taken from the bytes a startup replay read ahead.
+     */
+    void replayHit() {
+        replayHits.increment();
+    }
+
+    /**
+     * Counts a read of a startup replay that was dropped because the budget was full or the loader serves the resource
+     * from another URL.
+     */
+    void replayDropped() {
+        replayDropped.increment();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getParent() {
+        return (parent == null) ? null : parent.name;
+    }
+
+    @Override
+    public long getClassesDefined() {
+        return classesDefined.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getReadTimeNanos() {
+        return readNanos.sum();
+    }
+
+    @Override
+    public long getDefineTimeNanos() {
+        return defineNanos.sum();
+    }
+
+    @Override
+    public long getFindClassMisses() {
+        return findClassMisses.sum();
+    }
+
+    @Override
+    public long getResourceLookups() {
+        return resourceLookups.sum();
+    }
+
+    @Override
+    public long getResourceCacheHits() {
+        final ClassPathIndex index = classPath.get();
+        return (index == null) ? 0 : index.getResourceCacheHits();
+    }
+
+    @Override
+    public long getResourceCacheMisses() {
+        final ClassPathIndex index = classPath.get();
+        return (index == null) ? 0 : index.getResourceCacheMisses();
+    }
+
+    @Override
+    public long getResourceCacheEvictions() {
+        final ClassPathIndex index = classPath.get();
+        return (index == null) ? 0 : index.getResourceCacheEvictions();
+    }
+
+    @Override
+    public long getPrefetchHits() {
+        return prefetchHits.sum();
+    }
+
+    @Override
+    public long getPrefetchWasted() {
+        return prefetchWasted.sum();
+    }
+
+    @Override
+    public long getReplayHits() {
+        return replayHits.sum();
+    }
+
+    @Override
+    public long getReplayDropped() {
+        return replayDropped.sum();
+    }
+
+    @Override
+    public int getOpenJars() {
+        final ClassPathIndex index = classPath.get();
+        return (index == null) ? 0 : index.getJarCount();
+    }
+
+    @Override
+    public int getOpenStreams() {
+        final CloseableRegistry registry = closeables.get();
+        return (registry == null) ? 0 : registry.size();
+    }
+
+    /*
+     * Queued once the loader is garbage collected, with the metrics to
+     * unregister. Unpublished metrics have nothing to unregister.
+     */
+    private static final class LoaderReference extends WeakReference<ClassLoader> {
+        private final LoaderMetrics metrics;
+
+        private LoaderReference(final ClassLoader loader, final LoaderMetrics metrics) {
+            super(loader, PUBLISH ? COLLECTED : null);
+            this.metrics = metrics;
+        }
+    }
+
+    private static final class Hierarchy implements LoaderHierarchyMXBean {
+        private final LoaderMetrics root;
+
+        private Hierarchy(final LoaderMetrics root) {
+            this.root = root;
+        }
+
+        private List<LoaderMetrics> members() {
+            final List<LoaderMetrics> members = new ArrayList<>();
+            synchronized (REGISTERED) {
+                for (final LoaderMetrics registered : REGISTERED.values()) {
+                    if (registered.root() == root) {
+                        members.add(registered);
+                    }
+                }
+            }
+            return members;
+        }
+
+        /*
+         * Adds up one counter of all the members.
+         */
+        private long sum(final ToLongFunction<LoaderMetrics> counter) {
+            long sum = 0;
+            for (final LoaderMetrics member : members()) {
+                sum += counter.applyAsLong(member);
+            }
+            return sum;
+        }
+
+        @Override
+        public String getRoot() {
+            return root.name;
+        }
+
+        @Override
+        public int getLoaderCount() {
+            return members().size();
+        }
+
+        @Override
+        public long getClassesDefined() {
+            return sum(LoaderMetrics::getClassesDefined);
+        }
+
+        @Override
+        public long getBytesRead() {
+            return sum(LoaderMetrics::getBytesRead);
+        }
+
+        @Override
+        public long getReadTimeNanos() {
+            return sum(LoaderMetrics::getReadTimeNanos);
+        }
+
+        @Override
+        public long getDefineTimeNanos() {
+            return sum(LoaderMetrics::getDefineTimeNanos);
+        }
+
+        @Override
+        public long getFindClassMisses() {
+            return sum(LoaderMetrics::getFindClassMisses);
+        }
+
+        @Override
+        public long getResourceLookups() {
+            return sum(LoaderMetrics::getResourceLookups);
+        }
+
+        @Override
+        public long getResourceCacheHits() {
+            return sum(LoaderMetrics::getResourceCacheHits);
+        }
+
+        @Override
+        public long getResourceCacheMisses() {
+            return sum(LoaderMetrics::getResourceCacheMisses);
+        }
+
+        @Override
+        public long getResourceCacheEvictions() {
+            return sum(LoaderMetrics::getResourceCacheEvictions);
+        }
+
+        @Override
+        public long getPrefetchHits() {
+            return sum(LoaderMetrics::getPrefetchHits);
+        }
+
+        @Override
+        public long getPrefetchWasted() {
+            return sum(LoaderMetrics::getPrefetchWasted);
+        }
+
+        @Override
+        public long getReplayHits() {
+            return sum(LoaderMetrics::getReplayHits);
+        }
+
+        @Override
+        public long getReplayDropped() {
+            return sum(LoaderMetrics::getReplayDropped);
+        }
+
+        @Override
+        public int getOpenJars() {
+            return (int) sum(LoaderMetrics::getOpenJars);
+        }
+
+        @Override
+        public int getMappedJars() {
+            final Set<MappedJarFile> jars = Collections.newSetFromMap(new IdentityHashMap<MappedJarFile, Boolean>());
+            for (final LoaderMetrics member : members()) {
+                final ClassPathIndex index = member.classPath.get();
+                if (index != null) {
+                    index.collectMappedJars(jars);
+                }
+            }
+            return jars.size();
+        }
+
+        @Override
+        public int getOpenStreams() {
+            return (int) sum(LoaderMetrics::getOpenStreams);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package nl.ivonet.classloader.trial;
+
+/**
+ * The metrics of one {@link IvoNetClassLoader} or {@link IvoNetClassLoader2}, registered in the platform MBean server
+ * as {@code nl.ivonet.classloader:type=ClassLoader,name=<loader>} when {@code -Dnl.ivonet.classloader.metrics=true}.
+ *
+ * @author Ivo Woltring
+ */
+public interface LoaderMetricsMXBean {
+
+    /**
+     * @return the name the loader is registered with
+     */
+    String getName();
+
+    /**
+     * @return the name of the nearest ancestor loader that is registered as well, or {@code null}
+     */
+    String getParent();
+
+    /**
+     * @return the number of classes defined
+     */
+    long getClassesDefined();
+
+    /**
+     * @return the number of class file bytes read
+     */
+    long getBytesRead();
+
+    /**
+     * @return the nanoseconds spent reading class files and defining their packages
+     */
+    long getReadTimeNanos();
+
+    /**
+     * @return the nanoseconds spent defining (parsing) classes
+     */
+    long getDefineTimeNanos();
+
+    /**
+     * @return the number of classes looked for on the search path but not found
+     */
+    long getFindClassMisses();
+
+    /**
+     * @return the number of resources looked for on the search path
+     */
+    long getResourceLookups();
+
+    /**
+     * @return the number of findResource and findResources calls answered from the resource cache
+     */
+    long getResourceCacheHits();
+
+    /**
+     * @return the number of findResource and findResources calls that had to search the search path
+     */
+    long getResourceCacheMisses();
+
+    /**
+     * @return the number of cached resource lookups evicted to make room
+     */
+    long getResourceCacheEvictions();
+
+    /**
+     * @return the number of classes defined from bytes a prefetch read ahead
+     */
+    long getPrefetchHits();
+
+    /**
+     * @return the number of classes a prefetch read ahead that were never defined from those bytes
+     */
+    long getPrefetchWasted();
+
+    /**
+     * @return the number of classes and resources served from bytes a startup replay read ahead
+     */
+    long getReplayHits();
+
+    /**
+     * @return the number of reads of a startup replay dropped because its budget was full or the resource was served
+     * from another URL
+     */
+    long getReplayDropped();
+
+    /**
+     * @return the number of jars on the search path, 0 once the loader is closed
+     */
+    int getOpenJars();
+
+    /**
+     * @return the number of streams and jar files opened by getResourceAsStream that are still tracked for closing
+     */
+    int getOpenStreams();
+}
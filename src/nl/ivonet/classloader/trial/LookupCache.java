@@ -0,0 +1,118 @@
+package nl.ivonet.classloader.trial;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded map of resource names to what a lookup on a search path found for them, including that nothing was
+ * found.
+ * <p/>
+ * Works like the {@link MissCache}: a lookup takes the current {@link #generation()} first and its result is only
+ * recorded if the cache was not invalidated in the meantime. When the cache is full an arbitrary name is evicted to
+ * make room. The hits, misses and evictions are counted.
+ *
+ * @param <V> the type of the lookup result
+ * @author Ivo Woltring
+ */
+final class LookupCache<V> {
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final Map<String, V> results = new ConcurrentHashMap<>();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    LookupCache(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(String, Object, int)} after the lookup
+     */
+    int generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param name the resource name
+     * @return the recorded result or {@code null} if the name has to be looked up
+     */
+    V get(final String name) {
+        final V result = results.get(name);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Records the result of a lookup unless the cache was invalidated since the given generation.
+     *
+     * @param name       the resource name
+     * @param result     what was found, not {@code null}
+     * @param generation the {@link #generation()} taken before the lookup started
+     */
+    void put(final String name, final V result, final int generation) {
+        if (generation != this.generation.get()) {
+            return;
+        }
+        if (results.size() >= capacity) {
+            final Iterator<String> iterator = results.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+        results.put(name, result);
+        // an invalidation may have cleared the map just before we added to it
+        if (generation != this.generation.get()) {
+            results.remove(name);
+        }
+    }
+
+    /**
+     * Forgets the result recorded for a name.
+     *
+     * @param name the resource name
+     */
+    void remove(final String name) {
+        results.remove(name);
+    }
+
+    /**
+     * Forgets all the recorded results.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        results.clear();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that had to search
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of results evicted to make room
+     */
+    long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,147 @@
+package nl.ivonet.classloader.trial;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * The package attributes of a jar manifest, parsed once.
+ * <p/>
+ * The attributes of a package are those of its section in the manifest (e.g. {@code Name: nl/ivonet/}), falling back
+ * to the main attributes for the ones the section does not have. Both are merged up front for every package section,
+ * and keyed by the dotted package name, so defining or checking a package is a single map lookup.
+ *
+ * @author Ivo Woltring
+ */
+final class ManifestPackages {
+    private final Manifest manifest;
+    private final Metadata defaults;
+    private final Map<String, Metadata> sections;
+
+    private ManifestPackages(final Manifest manifest, final Metadata defaults, final Map<String, Metadata> sections) {
+        this.manifest = manifest;
+        this.defaults = defaults;
+        this.sections = sections;
+    }
+
+    /**
+     * Parses the package attributes of a manifest.
+     *
+     * @param manifest the manifest of a jar
+     * @return the package attributes
+     */
+    static ManifestPackages parse(final Manifest manifest) {
+        final Metadata defaults = Metadata.of(manifest.getMainAttributes(), null);
+        final Map<String, Metadata> sections = new HashMap<>();
+        for (final Map.Entry<String, Attributes> section : manifest.getEntries().entrySet()) {
+            final String path = section.getKey();
+            // only directories are packages, the other sections are about entries (e.g. their digests)
+            if (path.endsWith("/") && (path.length() > 1)) {
+                final String packageName = path.substring(0, path.length() - 1).replace('/', '.');
+                sections.put(packageName, Metadata.of(section.getValue(), defaults));
+            }
+        }
+        return new ManifestPackages(manifest, defaults,
+                                    sections.isEmpty() ? Collections.<String, Metadata>emptyMap() : sections);
+    }
+
+    /**
+     * @param other a manifest
+     * @return true if these are the attributes of that very manifest
+     */
+    boolean isFor(final Manifest other) {
+        return manifest == other;
+    }
+
+    /**
+     * @param packageName the dotted name of the package
+     * @return the attributes of the package
+     */
+    Metadata get(final String packageName) {
+        final Metadata metadata = sections.get(packageName);
+        return (metadata == null) ? defaults : metadata;
+    }
+
+    /**
+     * The version and sealing attributes of a package.
+     */
+    static final class Metadata {
+        private final String specTitle;
+        private final String specVersion;
+        private final String specVendor;
+        private final String implTitle;
+        private final String implVersion;
+        private final String implVendor;
+        private final String sealed;
+
+        private Metadata(final String specTitle, final String specVersion, final String specVendor,
+                         final String implTitle, final String implVersion, final String implVendor,
+                         final String sealed) {
+            this.specTitle = specTitle;
+            this.specVersion = specVersion;
+            this.specVendor = specVendor;
+            this.implTitle = implTitle;
+            this.implVersion = implVersion;
+            this.implVendor = implVendor;
+            this.sealed = sealed;
+        }
+
+        /*
+         * Reads the attributes, taking the ones that are missing from the defaults.
+         */
+        private static Metadata of(final Attributes attr, final Metadata defaults) {
+            return new Metadata(value(attr, Attributes.Name.SPECIFICATION_TITLE,
+                                      (defaults == null) ? null : defaults.specTitle),
+                                value(attr, Attributes.Name.SPECIFICATION_VERSION,
+                                      (defaults == null) ? null : defaults.specVersion),
+                                value(attr, Attributes.Name.SPECIFICATION_VENDOR,
+                                      (defaults == null) ? null : defaults.specVendor),
+                                value(attr, Attributes.Name.IMPLEMENTATION_TITLE,
+                                      (defaults == null) ? null : defaults.implTitle),
+                                value(attr, Attributes.Name.IMPLEMENTATION_VERSION,
+                                      (defaults == null) ? null : defaults.implVersion),
+                                value(attr, Attributes.Name.IMPLEMENTATION_VENDOR,
+                                      (defaults == null) ? null : defaults.implVendor),
+                                value(attr, Attributes.Name.SEALED,
+                                      (defaults == null) ? null : defaults.sealed));
+        }
+
+        private static String value(final Attributes attr, final Attributes.Name name, final String fallback) {
+            final String value = (attr == null) ? null : attr.getValue(name);
+            return (value == null) ? fallback : value;
+        }
+
+        String getSpecTitle() {
+            return specTitle;
+        }
+
+        String getSpecVersion() {
+            return specVersion;
+        }
+
+        String getSpecVendor() {
+            return specVendor;
+        }
+
+        String getImplTitle() {
+            return implTitle;
+        }
+
+        String getImplVersion() {
+            return implVersion;
+        }
+
+        String getImplVendor() {
+            return implVendor;
+        }
+
+        /**
+         * @return true if the package is sealed
+         */
+        boolean isSealed() {
+            return "true".equalsIgnoreCase(sealed);
+        }
+    }
+}
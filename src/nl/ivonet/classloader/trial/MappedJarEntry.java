@@ -0,0 +1,259 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+import sun.net.www.ParseUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Manifest;
+
+/**
+ * A {@link ClassPathEntry} for a local jar that is read through a {@link MappedJarFile}, shared with the other
+ * loaders through the {@link JarRegistry}.
+ * <p/>
+ * The entries of a signed jar get the signers that were found when the jar was verified, see {@link SignedJarEntry}.
+ * A jar or directory in a jar is read from the mapping of the outer jar, see {@link NestedJarEntry}.
+ *
+ * @author Ivo Woltring
+ */
+final class MappedJarEntry extends ClassPathEntry {
+    private final MappedJarFile jar;
+    /* The jar to release when closed: the jar itself or the jar it is in */
+    private final MappedJarFile registered;
+    /* jar:<url>!/ */
+    private final URL baseURL;
+    /* Entry name -> signers of a verified signed jar, null for a plain jar */
+    private final Map<String, CodeSigner[]> signers;
+
+    private MappedJarEntry(final URL url, final MappedJarFile jar, final MappedJarFile registered, final URL baseURL,
+                           final Map<String, CodeSigner[]> signers) {
+        super(url);
+        this.jar = jar;
+        this.registered = registered;
+        this.baseURL = baseURL;
+        this.signers = signers;
+    }
+
+    private static URL jarURL(final URL url) throws MalformedURLException {
+        return new URL("jar", "", -1, url + "!/");
+    }
+
+    /**
+     * Creates an entry for a signed jar of which the signatures have been verified.
+     *
+     * @param url     the URL on the search path
+     * @param jar     the mapped signed jar, released by the entry when it is closed
+     * @param signers the signers of the entries, entries that are not signed are absent
+     * @return the entry
+     * @throws MalformedURLException if no jar: URL can be made of the URL
+     */
+    static MappedJarEntry verified(final URL url, final MappedJarFile jar, final Map<String, CodeSigner[]> signers)
+            throws MalformedURLException {
+        return new MappedJarEntry(url, jar, jar, jarURL(url), signers);
+    }
+
+    /**
+     * Creates an entry for a jar or directory in a mapped jar.
+     *
+     * @param url     the URL on the search path
+     * @param jar     the jar or directory, read from the mapping of the outer jar
+     * @param outer   the jar it is in, released by the entry when it is closed
+     * @param baseURL the URL the names of the resources are resolved against
+     * @return the entry
+     */
+    static MappedJarEntry nested(final URL url, final MappedJarFile jar, final MappedJarFile outer,
+                                 final URL baseURL) {
+        return new MappedJarEntry(url, jar, outer, baseURL, null);
+    }
+
+    /**
+     * Creates an entry for the URL if it refers to a local jar that can be mapped.
+     *
+     * @param url the URL on the search path
+     * @return the entry or {@code null} if the URL has to be handled by the {@link sun.misc.URLClassPath}
+     */
+    static MappedJarEntry open(final URL url) {
+        final File file = localJar(url);
+        if (file == null) {
+            return null;
+        }
+        try {
+            final MappedJarFile jar = JarRegistry.open(file);
+            return (jar == null) ? null : new MappedJarEntry(url, jar, jar, jarURL(url), null);
+        } catch (IOException ignored) {
+            // let the URLClassPath report it when the jar is actually used
+            return null;
+        }
+    }
+
+    /*
+     * Returns the file of a file: URL that does not refer to a directory.
+     */
+    static File localJar(final URL url) {
+        if (!"file".equals(url.getProtocol()) || url.getFile().endsWith("/")) {
+            return null;
+        }
+        final String host = url.getHost();
+        if ((host != null) && !host.isEmpty() && !"localhost".equalsIgnoreCase(host)) {
+            return null;
+        }
+        final File file = new File(ParseUtil.decode(url.getFile().replace('/', File.separatorChar)));
+        return file.isFile() ? file : null;
+    }
+
+    @Override
+    Set<String> getPackagePaths() {
+        return jar.getPackagePaths();
+    }
+
+    @Override
+    Set<String> getClassPackagePaths() {
+        return jar.getClassPackagePaths();
+    }
+
+    @Override
+    Resource getResource(final String name, final boolean check) {
+        final MappedJarFile.Entry entry = jar.getEntry(name);
+        if (entry == null) {
+            return null;
+        }
+        final URL url = resourceURL(name, check);
+        return (url == null) ? null : new MappedResource(entry, url);
+    }
+
+    @Override
+    URL findResource(final String name, final boolean check) {
+        return (jar.getEntry(name) == null) ? null : resourceURL(name, check);
+    }
+
+    @Override
+    Enumeration<URL> findResources(final String name, final boolean check) {
+        final URL url = findResource(name, check);
+        return (url == null) ? Collections.<URL>emptyEnumeration()
+                             : Collections.enumeration(Collections.singleton(url));
+    }
+
+    /*
+     * Like the URLClassPath the URL is made with the name asked for, which
+     * may lack the trailing '/' of a directory.
+     */
+    private URL resourceURL(final String name, final boolean check) {
+        try {
+            final URL url = new URL(baseURL, ParseUtil.encodePath(name, false));
+            return check ? ClassPathIndex.check(url) : url;
+        } catch (MalformedURLException ignored) {
+            return null;
+        }
+    }
+
+    @Override
+    MappedJarFile getMappedJar() {
+        return registered;
+    }
+
+    @Override
+    public void close() {
+        JarRegistry.release(registered);
+    }
+
+    /**
+     * A class or resource in a mapped jar. When defined through {@link #getByteBuffer()} the buffer has to be
+     * {@link #release() released} afterwards.
+     */
+    final class MappedResource extends Resource {
+        private final MappedJarFile.Entry entry;
+        private final URL url;
+        private byte[] borrowed;
+
+        private MappedResource(final MappedJarFile.Entry entry, final URL url) {
+            this.entry = entry;
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return entry.getName();
+        }
+
+        @Override
+        public URL getURL() {
+            return url;
+        }
+
+        @Override
+        public URL getCodeSourceURL() {
+            return MappedJarEntry.this.getURL();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteArrayInputStream(jar.readBytes(entry));
+        }
+
+        @Override
+        public int getContentLength() {
+            return entry.getSize();
+        }
+
+        @Override
+        public byte[] getBytes() throws IOException {
+            return jar.readBytes(entry);
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() throws IOException {
+            final ByteBuffer buffer = jar.read(entry);
+            if (!entry.isStored()) {
+                borrowed = buffer.array();
+            }
+            return buffer;
+        }
+
+        /**
+         * Hands the buffer returned by {@link #getByteBuffer()} back for reuse.
+         */
+        void release() {
+            if (borrowed != null) {
+                MappedJarFile.release(borrowed);
+                borrowed = null;
+            }
+        }
+
+        @Override
+        public Manifest getManifest() {
+            return jar.getManifest();
+        }
+
+        @Override
+        public CodeSigner[] getCodeSigners() {
+            return (signers == null) ? null : signers.get(entry.getName());
+        }
+
+        @Override
+        public Certificate[] getCertificates() {
+            final CodeSigner[] codeSigners = getCodeSigners();
+            if (codeSigners == null) {
+                return null;
+            }
+            // like a JarEntry: the certificate chains of all the signers after each other
+            final List<Certificate> certificates = new ArrayList<>();
+            for (final CodeSigner codeSigner : codeSigners) {
+                certificates.addAll(codeSigner.getSignerCertPath().getCertificates());
+            }
+            return certificates.toArray(new Certificate[certificates.size()]);
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A jar file that is memory mapped as a whole.
+ * <p/>
+ * The central directory is parsed once when the jar is opened. Stored entries are handed out as slices of the mapped
+ * file, so defining a class from them copies nothing. Deflated entries are inflated into buffers that are reused per
+ * thread (see {@link #read(Entry)} and {@link #release(byte[])}).
+ * <p/>
+ * Only plain jars are mapped: jars that are signed, have a Class-Path attribute or INDEX.LIST, need zip64 or are
+ * larger than 2GB are left to the {@link sun.misc.URLClassPath} and {@link #open(File)} returns {@code null} for them.
+ * Signed jars can be mapped with {@link #openSigned(File)}, but the signatures are not verified: that is up to the
+ * caller (see {@link SignedJarEntry}).
+ * <p/>
+ * A jar stored in another mapped jar (like the libraries in {@code BOOT-INF/lib} of a fat jar) is opened with {@link
+ * #openNested(MappedJarFile, String)} as a slice of the mapping of the outer jar, so its central directory is read and
+ * its entries are served where they are, without extracting the jar. A directory in a mapped jar (like {@code
+ * BOOT-INF/classes/}) is opened as a jar of its own with {@link #openDirectory(MappedJarFile, String)}.
+ * <p/>
+ * The mapping is not unmapped on {@link #close()}, as a thread could still be defining a class from it. It is released
+ * when the buffer is garbage collected.
+ *
+ * @author Ivo Woltring
+ */
+final class MappedJarFile implements Closeable {
+    private static final int END_HEADER = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    /* Buffers larger than this are not kept for reuse */
+    private static final int MAX_POOLED_SIZE = 1 << 20;
+    private static final int MAX_POOLED_PER_THREAD = 4;
+
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+    /* A stack as defining a class can read its super class on the same thread */
+    private static final ThreadLocal<ArrayDeque<byte[]>> BUFFERS = new ThreadLocal<ArrayDeque<byte[]>>() {
+        @Override
+        protected ArrayDeque<byte[]> initialValue() {
+            return new ArrayDeque<>(MAX_POOLED_PER_THREAD);
+        }
+    };
+
+    private final File file;
+    private final ByteBuffer map;
+    private final Map<String, Entry> entries;
+    private final Set<String> packagePaths;
+    private final Manifest manifest;
+    private final boolean signed;
+    /* Taken once, the jar may be shared by many loaders */
+    private volatile byte[] sha256;
+
+    private MappedJarFile(final File file, final ByteBuffer map, final Map<String, Entry> entries,
+                          final Set<String> packagePaths, final boolean signed) throws IOException {
+        this.file = file;
+        this.map = map;
+        this.entries = entries;
+        this.packagePaths = packagePaths;
+        this.signed = signed;
+        final Entry manifestEntry = entries.get(JarFile.MANIFEST_NAME);
+        manifest = (manifestEntry == null) ? null : new Manifest(new ByteArrayInputStream(readBytes(manifestEntry)));
+    }
+
+    private MappedJarFile(final MappedJarFile jar, final Map<String, Entry> entries, final Set<String> packagePaths) {
+        file = jar.file;
+        map = jar.map;
+        this.entries = entries;
+        this.packagePaths = packagePaths;
+        signed = false;
+        manifest = jar.manifest;
+    }
+
+    /**
+     * Maps the given jar and reads its central directory.
+     *
+     * @param file the jar file
+     * @return the mapped jar or {@code null} if the jar has to be read by the {@link sun.misc.URLClassPath}
+     * @throws IOException if the jar could not be read
+     */
+    static MappedJarFile open(final File file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * Maps the given signed jar and reads its central directory. The signatures are not verified.
+     *
+     * @param file the jar file
+     * @return the mapped jar or {@code null} if the jar is not signed or has to be read by the {@link
+     *         sun.misc.URLClassPath} for another reason
+     * @throws IOException if the jar could not be read
+     */
+    static MappedJarFile openSigned(final File file) throws IOException {
+        return open(file, true);
+    }
+
+    private static MappedJarFile open(final File file, final boolean allowSigned) throws IOException {
+        final MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return parse(file, map, allowSigned);
+    }
+
+    /**
+     * Opens a jar stored in a mapped jar. A stored (uncompressed) jar is read where it is in the mapping of the outer
+     * jar, a deflated one is inflated into memory once. The nested jar is never signed and has to be closed before
+     * the outer jar is.
+     *
+     * @param outer the mapped jar the jar is in
+     * @param name  the name of the jar in the outer jar
+     * @return the nested jar or {@code null} if it is not in the outer jar or has to be read by the {@link
+     *         sun.misc.URLClassPath}
+     * @throws IOException if the jar could not be read
+     */
+    static MappedJarFile openNested(final MappedJarFile outer, final String name) throws IOException {
+        final Entry entry = outer.entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final ByteBuffer map;
+        if (entry.method == STORED) {
+            final ByteBuffer slice = outer.map.duplicate();
+            final int start = outer.dataOffset(entry);
+            slice.limit(start + entry.size).position(start);
+            map = slice.slice();
+        } else {
+            map = ByteBuffer.wrap(outer.readBytes(entry));
+        }
+        return parse(outer.file, map, false);
+    }
+
+    /**
+     * Opens a directory in a mapped jar as a jar of its own: its entries are the entries of the outer jar in the
+     * directory, named without the directory. The manifest is the one of the outer jar.
+     *
+     * @param outer     the mapped jar the directory is in
+     * @param directory the name of the directory in the outer jar, ending with a '/'
+     * @return the directory
+     */
+    static MappedJarFile openDirectory(final MappedJarFile outer, final String directory) {
+        final Map<String, Entry> entries = new HashMap<>();
+        final Set<String> paths = new HashSet<>();
+        paths.add("");
+        for (final Entry entry : outer.entries.values()) {
+            if (entry.name.startsWith(directory) && (entry.name.length() > directory.length())) {
+                final String name = entry.name.substring(directory.length());
+                entries.put(name, new Entry(name, entry.method, entry.compressedSize, entry.size, entry.localOffset));
+                ClassPathIndex.addPackagePaths(paths, name);
+            }
+        }
+        return new MappedJarFile(outer, entries, Collections.unmodifiableSet(paths));
+    }
+
+    /*
+     * Reads the central directory of the jar in the buffer, of which the
+     * offsets are relative to the start of the buffer.
+     */
+    private static MappedJarFile parse(final File file, final ByteBuffer map, final boolean allowSigned)
+            throws IOException {
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        final int end = findEndHeader(map);
+        final int total = map.getShort(end + 10) & 0xFFFF;
+        final long size = map.getInt(end + 12) & 0xFFFFFFFFL;
+        final long offset = map.getInt(end + 16) & 0xFFFFFFFFL;
+        if ((total == 0xFFFF) || (offset == 0xFFFFFFFFL)) {
+            return null;
+        }
+        // anything in front of the zip (like a launcher script) shifts all offsets
+        final int base = (int) (end - size - offset);
+        if ((base < 0) || (map.getShort(end + 4) != 0)) {
+            throw new ZipException("Unsupported zip file: " + file);
+        }
+
+        final Map<String, Entry> entries = new HashMap<>(total * 2);
+        final Set<String> paths = new HashSet<>();
+        paths.add("");
+        boolean signed = false;
+        int pos = (int) (base + offset);
+        for (int i = 0; i < total; i++) {
+            if (map.getInt(pos) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory header in " + file);
+            }
+            final int method = map.getShort(pos + 10) & 0xFFFF;
+            final long compressedSize = map.getInt(pos + 20) & 0xFFFFFFFFL;
+            final long uncompressedSize = map.getInt(pos + 24) & 0xFFFFFFFFL;
+            final int nameLength = map.getShort(pos + 28) & 0xFFFF;
+            final int extraLength = map.getShort(pos + 30) & 0xFFFF;
+            final int commentLength = map.getShort(pos + 32) & 0xFFFF;
+            final long localOffset = map.getInt(pos + 42) & 0xFFFFFFFFL;
+            if ((compressedSize == 0xFFFFFFFFL) || (uncompressedSize == 0xFFFFFFFFL)
+                || (localOffset == 0xFFFFFFFFL)) {
+                return null;
+            }
+            final String name = utf8(map, pos + CENTRAL_HEADER_SIZE, nameLength);
+            if (isSigningFile(name)) {
+                if (!allowSigned) {
+                    return null;
+                }
+                signed = true;
+            } else if ("META-INF/INDEX.LIST".equals(name)) {
+                return null;
+            }
+            entries.put(name, new Entry(name, method, (int) compressedSize, (int) uncompressedSize,
+                                        (int) (base + localOffset)));
+            ClassPathIndex.addPackagePaths(paths, name);
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        if (allowSigned && !signed) {
+            return null;
+        }
+        final MappedJarFile jar = new MappedJarFile(file, map, entries, Collections.unmodifiableSet(paths), signed);
+        if ((jar.manifest != null) && (jar.manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null)) {
+            return null;
+        }
+        return jar;
+    }
+
+    private static int findEndHeader(final ByteBuffer map) throws ZipException {
+        final int last = map.limit() - END_HEADER_SIZE;
+        // the end header is followed by a comment of at most 64K
+        for (int pos = last; pos >= Math.max(0, last - 0xFFFF); pos--) {
+            if (map.getInt(pos) == END_HEADER) {
+                return pos;
+            }
+        }
+        throw new ZipException("No end of central directory found, not a zip file?");
+    }
+
+    private static boolean isSigningFile(final String name) {
+        if (!name.startsWith("META-INF/") || (name.indexOf('/', 9) != -1)) {
+            return false;
+        }
+        final String upper = name.toUpperCase(Locale.ENGLISH);
+        return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC");
+    }
+
+    private static String utf8(final ByteBuffer map, final int pos, final int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer slice = map.duplicate();
+        slice.position(pos);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the jar file that is mapped
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the package paths of all the entries in the jar
+     */
+    Set<String> getPackagePaths() {
+        return packagePaths;
+    }
+
+    /**
+     * @return the package paths of the class files in the jar, listed from its central directory
+     */
+    Set<String> getClassPackagePaths() {
+        final Set<String> paths = new HashSet<>();
+        for (final String name : entries.keySet()) {
+            ClassPathIndex.addClassPackagePath(paths, name);
+        }
+        return Collections.unmodifiableSet(paths);
+    }
+
+    /**
+     * @return the manifest of the jar or {@code null} if it has none
+     */
+    Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return true if the jar has signature files
+     */
+    boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * @return the SHA-256 hash of the whole jar file as it is mapped, not to be changed
+     */
+    byte[] sha256() {
+        if (sha256 != null) {
+            return sha256;
+        }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final ByteBuffer all = map.duplicate();
+            all.clear();
+            digest.update(all);
+            sha256 = digest.digest();
+            return sha256;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    /**
+     * @return all the entries of the jar in no particular order
+     */
+    Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Finds an entry by name. Like {@link java.util.zip.ZipFile#getEntry(String)} a directory is also found without
+     * its trailing '/'.
+     *
+     * @param name the entry name
+     * @return the entry or {@code null} if it is not in the jar
+     */
+    Entry getEntry(final String name) {
+        final Entry entry = entries.get(name);
+        if ((entry == null) && !name.endsWith("/")) {
+            return entries.get(name + '/');
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the contents of an entry without copying where possible. A stored entry is a slice of the mapped file. A
+     * deflated entry is inflated into a buffer borrowed from the current thread, which has to be handed back with
+     * {@link #release(byte[])} once the contents are no longer needed. That buffer is the array of the returned
+     * (heap) buffer.
+     *
+     * @param entry the entry to read
+     * @return the contents of the entry
+     * @throws IOException if the entry could not be read
+     */
+    ByteBuffer read(final Entry entry) throws IOException {
+        if (entry.method == STORED) {
+            final ByteBuffer slice = map.duplicate();
+            final int start = dataOffset(entry);
+            slice.limit(start + entry.size).position(start);
+            return slice.slice();
+        }
+        final byte[] buffer = borrow(entry.size);
+        inflate(entry, buffer);
+        return ByteBuffer.wrap(buffer, 0, entry.size);
+    }
+
+    /**
+     * Reads the contents of an entry into a new array.
+     *
+     * @param entry the entry to read
+     * @return the contents of the entry
+     * @throws IOException if the entry could not be read
+     */
+    byte[] readBytes(final Entry entry) throws IOException {
+        final byte[] bytes = new byte[entry.size];
+        if (entry.method == STORED) {
+            final ByteBuffer slice = map.duplicate();
+            slice.position(dataOffset(entry));
+            slice.get(bytes);
+        } else {
+            inflate(entry, bytes);
+        }
+        return bytes;
+    }
+
+    private void inflate(final Entry entry, final byte[] target) throws IOException {
+        if (entry.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " of " + entry.name);
+        }
+        // the inflater of Java 8 only takes arrays
+        final byte[] input = borrow(entry.compressedSize);
+        final Inflater inflater = INFLATERS.get();
+        try {
+            final ByteBuffer slice = map.duplicate();
+            slice.position(dataOffset(entry));
+            slice.get(input, 0, entry.compressedSize);
+            inflater.setInput(input, 0, entry.compressedSize);
+            int count = 0;
+            while (count < entry.size) {
+                final int n = inflater.inflate(target, count, entry.size - count);
+                if ((n == 0) && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Unexpected end of " + entry.name + " in " + file);
+                }
+                count += n;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated data of " + entry.name + " in " + file + ": " + e.getMessage());
+        } finally {
+            inflater.reset();
+            release(input);
+        }
+    }
+
+    private int dataOffset(final Entry entry) throws ZipException {
+        int offset = entry.dataOffset;
+        if (offset < 0) {
+            final int local = entry.localOffset;
+            if (map.getInt(local) != LOCAL_HEADER) {
+                throw new ZipException("Invalid local header of " + entry.name + " in " + file);
+            }
+            final int nameLength = map.getShort(local + 26) & 0xFFFF;
+            final int extraLength = map.getShort(local + 28) & 0xFFFF;
+            offset = local + LOCAL_HEADER_SIZE + nameLength + extraLength;
+            entry.dataOffset = offset;
+        }
+        return offset;
+    }
+
+    private static byte[] borrow(final int size) {
+        final ArrayDeque<byte[]> pool = BUFFERS.get();
+        final byte[] buffer = pool.pollFirst();
+        if ((buffer != null) && (buffer.length >= size)) {
+            return buffer;
+        }
+        return new byte[Math.max(size, 8192)];
+    }
+
+    /**
+     * Hands a buffer used by {@link #read(Entry)} back for reuse by the current thread.
+     *
+     * @param buffer the array of the buffer returned by {@link #read(Entry)}
+     */
+    static void release(final byte[] buffer) {
+        final ArrayDeque<byte[]> pool = BUFFERS.get();
+        if ((buffer.length <= MAX_POOLED_SIZE) && (pool.size() < MAX_POOLED_PER_THREAD)) {
+            pool.addFirst(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing to do, the channel was closed after mapping (see class comment)
+    }
+
+    /**
+     * An entry of the central directory.
+     */
+    static final class Entry {
+        private final String name;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localOffset;
+        /* Found in the local header on first read */
+        private volatile int dataOffset = -1;
+
+        private Entry(final String name, final int method, final int compressedSize, final int size,
+                      final int localOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+
+        /**
+         * @return the name of the entry
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the uncompressed size of the entry
+         */
+        int getSize() {
+            return size;
+        }
+
+        /**
+         * @return true if the entry is stored uncompressed
+         */
+        boolean isStored() {
+            return method == STORED;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package nl.ivonet.classloader.trial;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded set of resource names that could not be found on a search path.
+ * <p/>
+ * A lookup first takes the current {@link #generation()} and only records its miss if the cache was not invalidated
+ * in the meantime, so a miss found before a URL was added never hides a resource found in that URL. When the cache is
+ * full an arbitrary name is evicted to make room.
+ *
+ * @author Ivo Woltring
+ */
+final class MissCache {
+    static final int DEFAULT_CAPACITY = 8192;
+
+    private final int capacity;
+    private final Set<String> misses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger generation = new AtomicInteger();
+
+    MissCache(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the generation to pass to {@link #add(String, int)} after the lookup
+     */
+    int generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param name the resource name
+     * @return true if the resource is known to be missing
+     */
+    boolean contains(final String name) {
+        return misses.contains(name);
+    }
+
+    /**
+     * Records a miss unless the cache was invalidated since the given generation.
+     *
+     * @param name       the resource name that could not be found
+     * @param generation the {@link #generation()} taken before the lookup started
+     */
+    void add(final String name, final int generation) {
+        if (generation != this.generation.get()) {
+            return;
+        }
+        if (misses.size() >= capacity) {
+            final Iterator<String> iterator = misses.iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        misses.add(name);
+        // an invalidation may have cleared the set just before we added to it
+        if (generation != this.generation.get()) {
+            misses.remove(name);
+        }
+    }
+
+    /**
+     * Forgets all the recorded misses.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        misses.clear();
+    }
+}
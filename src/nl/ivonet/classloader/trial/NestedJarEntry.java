@@ -0,0 +1,158 @@
+package nl.ivonet.classloader.trial;
+
+import sun.net.www.ParseUtil;
+import sun.security.util.SecurityConstants;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilePermission;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.Permission;
+
+/**
+ * Opens {@link MappedJarEntry MappedJarEntries} for the jars and directories in a local jar, like the libraries and
+ * classes of a fat jar:
+ * <pre>
+ *     jar:file:/app.jar!/BOOT-INF/lib/library.jar
+ *     jar:file:/app.jar!/BOOT-INF/classes/
+ * </pre>
+ * The {@link sun.misc.URLClassPath} can only read such a jar by extracting it to a temporary file first. Here the outer
+ * jar is mapped (and shared through the {@link JarRegistry}) and the nested jar is read as a slice of that mapping, see
+ * {@link MappedJarFile#openNested(MappedJarFile, String)}. A directory in the outer jar is served from the same
+ * mapping.
+ * <p/>
+ * The URLs of the resources in a nested jar are the ones fat jar launchers use, {@code
+ * jar:file:/app.jar!/BOOT-INF/lib/library.jar!/name}. The default jar: handler can not open those, so they get a
+ * handler that reads them from the mapped jar.
+ *
+ * @author Ivo Woltring
+ */
+final class NestedJarEntry {
+    private static final String SEPARATOR = "!/";
+
+    private NestedJarEntry() {
+    }
+
+    /**
+     * Creates an entry for the URL if it refers to a jar or a directory in a local jar that can be mapped.
+     *
+     * @param url the URL on the search path
+     * @return the entry or {@code null} if the URL has to be handled by the {@link sun.misc.URLClassPath}
+     */
+    static MappedJarEntry open(final URL url) {
+        if (!"jar".equals(url.getProtocol())) {
+            return null;
+        }
+        final String spec = url.getFile();
+        final int separator = spec.indexOf(SEPARATOR);
+        if ((separator == -1) || (separator + SEPARATOR.length() == spec.length())) {
+            return null;
+        }
+        final String name = ParseUtil.decode(spec.substring(separator + SEPARATOR.length()));
+        if (name.contains(SEPARATOR)) {
+            // a jar in a nested jar, not mapped
+            return null;
+        }
+        final File file;
+        try {
+            file = MappedJarEntry.localJar(new URL(spec.substring(0, separator)));
+        } catch (MalformedURLException ignored) {
+            return null;
+        }
+        if (file == null) {
+            return null;
+        }
+        try {
+            final MappedJarFile outer = JarRegistry.open(file);
+            if (outer == null) {
+                return null;
+            }
+            final MappedJarEntry entry = open(url, outer, file, name);
+            if (entry == null) {
+                JarRegistry.release(outer);
+            }
+            return entry;
+        } catch (IOException ignored) {
+            // let the URLClassPath report it when the jar is actually used
+            return null;
+        }
+    }
+
+    private static MappedJarEntry open(final URL url, final MappedJarFile outer, final File file, final String name) {
+        try {
+            final boolean directory = name.endsWith("/");
+            final MappedJarFile jar = directory ? MappedJarFile.openDirectory(outer, name)
+                                                : MappedJarFile.openNested(outer, name);
+            if (jar == null) {
+                return null;
+            }
+            final String base = directory ? url.toExternalForm() : (url.toExternalForm() + SEPARATOR);
+            return MappedJarEntry.nested(url, jar, outer, new URL(null, base, new Handler(jar, file, base)));
+        } catch (IOException ignored) {
+            // let the URLClassPath report it when the jar is actually used
+            return null;
+        }
+    }
+
+    /*
+     * Opens the URLs of the resources in one nested jar or directory.
+     */
+    private static final class Handler extends URLStreamHandler {
+        private final MappedJarFile jar;
+        private final File file;
+        private final String base;
+
+        private Handler(final MappedJarFile jar, final File file, final String base) {
+            this.jar = jar;
+            this.file = file;
+            this.base = base;
+        }
+
+        @Override
+        protected URLConnection openConnection(final URL url) throws IOException {
+            final String spec = url.toExternalForm();
+            final MappedJarFile.Entry entry = spec.startsWith(base)
+                                              ? jar.getEntry(ParseUtil.decode(spec.substring(base.length()))) : null;
+            if (entry == null) {
+                throw new FileNotFoundException(spec);
+            }
+            return new Connection(url, entry);
+        }
+
+        private final class Connection extends URLConnection {
+            private final MappedJarFile.Entry entry;
+
+            private Connection(final URL url, final MappedJarFile.Entry entry) {
+                super(url);
+                this.entry = entry;
+            }
+
+            @Override
+            public void connect() {
+                connected = true;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                connect();
+                return new ByteArrayInputStream(jar.readBytes(entry));
+            }
+
+            @Override
+            public long getContentLengthLong() {
+                return entry.getSize();
+            }
+
+            @Override
+            public Permission getPermission() {
+                return new FilePermission(file.getPath(), SecurityConstants.FILE_READ_ACTION);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package nl.ivonet.classloader.trial;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A growing table of package paths that remembers a value per package, looked up by a part of a class or resource
+ * name like a {@link PackageTable}. It grows up to a capacity, after which new packages are no longer recorded.
+ * <p/>
+ * A lookup does not lock and allocates nothing. Only recording the value of a new package takes the package path out
+ * of the name. The keys are kept in an open addressed array with linear probing, at most half full; when it fills up
+ * a bigger array is built and published as a whole, so a lookup always sees a complete array.
+ *
+ * @author Ivo Woltring
+ */
+final class PackageMemo<V> {
+    private final int capacity;
+    private volatile AtomicReferenceArray<Slot<V>> slots = new AtomicReferenceArray<>(16);
+    /* Guarded by this */
+    private int size;
+
+    /**
+     * @param capacity the number of packages after which no more are recorded
+     */
+    PackageMemo(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Looks up the package of a name.
+     *
+     * @param name      the class or resource name
+     * @param separator the separator of the package parts in the name: '.' for a binary class name, '/' for a
+     *                  resource name
+     * @return the value recorded for the package or {@code null} if there is none
+     */
+    V get(final CharSequence name, final char separator) {
+        final int end = PackageTable.packageEnd(name, separator);
+        final AtomicReferenceArray<Slot<V>> current = slots;
+        final int mask = current.length() - 1;
+        for (int i = PackageTable.spread(PackageTable.hash(name, end, separator)) & mask; ; i = (i + 1) & mask) {
+            final Slot<V> slot = current.get(i);
+            if (slot == null) {
+                return null;
+            }
+            if (PackageTable.matches(slot.key, name, end, separator)) {
+                return slot.value;
+            }
+        }
+    }
+
+    /**
+     * Records the value for the package of a name, unless one is recorded already or the memo is full.
+     *
+     * @param name      the class or resource name
+     * @param separator the separator of the package parts in the name
+     * @param value     the value of the package
+     */
+    synchronized void put(final CharSequence name, final char separator, final V value) {
+        if ((size >= capacity) || (get(name, separator) != null)) {
+            return;
+        }
+        final String key = name.subSequence(0, PackageTable.packageEnd(name, separator)).toString()
+                               .replace(separator, '/');
+        AtomicReferenceArray<Slot<V>> current = slots;
+        if (((size + 1) * 2) > current.length()) {
+            final AtomicReferenceArray<Slot<V>> grown = new AtomicReferenceArray<>(current.length() * 2);
+            for (int i = 0; i < current.length(); i++) {
+                final Slot<V> slot = current.get(i);
+                if (slot != null) {
+                    insert(grown, slot);
+                }
+            }
+            slots = grown;
+            current = grown;
+        }
+        insert(current, new Slot<>(key, value));
+        size++;
+    }
+
+    private static <V> void insert(final AtomicReferenceArray<Slot<V>> slots, final Slot<V> slot) {
+        final int mask = slots.length() - 1;
+        int i = PackageTable.spread(slot.key.hashCode()) & mask;
+        while (slots.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        slots.set(i, slot);
+    }
+
+    /* A key and its value are published together */
+    private static final class Slot<V> {
+        private final String key;
+        private final V value;
+
+        private Slot(final String key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
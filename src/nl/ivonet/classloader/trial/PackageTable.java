@@ -0,0 +1,123 @@
+package nl.ivonet.classloader.trial;
+
+import java.util.Map;
+
+/**
+ * An immutable table of package paths that is looked up by a part of a class or resource name.
+ * <p/>
+ * A {@link java.util.Map} can only be asked for a {@link String}, so looking up the package of {@code a.b.C} would
+ * cost a {@code "a/b"} for every lookup. This table hashes and compares the package part of the name where it is,
+ * reading the '.' of a binary class name as a '/', so a lookup allocates nothing. The hash is the one of the
+ * {@code String} of the package path, which the keys have cached already.
+ * <p/>
+ * The keys are kept in an open addressed array with linear probing, at most half full.
+ *
+ * @author Ivo Woltring
+ */
+final class PackageTable<V> {
+    private final String[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    /**
+     * @param packages the '/' separated package paths and their values
+     */
+    PackageTable(final Map<String, ? extends V> packages) {
+        int capacity = 4;
+        while (capacity < (packages.size() * 2)) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (final Map.Entry<String, ? extends V> pkg : packages.entrySet()) {
+            int i = spread(pkg.getKey().hashCode()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = pkg.getKey();
+            values[i] = pkg.getValue();
+        }
+    }
+
+    /**
+     * Looks up the package of a name.
+     *
+     * @param name      the class or resource name
+     * @param separator the separator of the package parts in the name: '.' for a binary class name, '/' for a
+     *                  resource name
+     * @return the value of the package or {@code null} if the package is not in the table
+     */
+    V get(final CharSequence name, final char separator) {
+        return lookup(name, packageEnd(name, separator), separator);
+    }
+
+    /**
+     * Looks up a package by its name.
+     *
+     * @param pkg       the package name or path
+     * @param separator the separator of the package parts in the name
+     * @return the value of the package or {@code null} if the package is not in the table
+     */
+    V getPackage(final CharSequence pkg, final char separator) {
+        return lookup(pkg, pkg.length(), separator);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V lookup(final CharSequence name, final int end, final char separator) {
+        for (int i = spread(hash(name, end, separator)) & mask; ; i = (i + 1) & mask) {
+            final String key = keys[i];
+            if (key == null) {
+                return null;
+            }
+            if (matches(key, name, end, separator)) {
+                return (V) values[i];
+            }
+        }
+    }
+
+    /*
+     * The hash of the package path, the same as String.hashCode of it.
+     */
+    static int hash(final CharSequence name, final int end, final char separator) {
+        int h = 0;
+        for (int i = 0; i < end; i++) {
+            h = (31 * h) + slash(name.charAt(i), separator);
+        }
+        return h;
+    }
+
+    /*
+     * The end of the package part, the whole name is in the root package
+     * when it has no separator or only a leading one.
+     */
+    static int packageEnd(final CharSequence name, final char separator) {
+        for (int i = name.length() - 1; i > 0; i--) {
+            if (name.charAt(i) == separator) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    static boolean matches(final String key, final CharSequence name, final int end, final char separator) {
+        if (key.length() != end) {
+            return false;
+        }
+        for (int i = 0; i < end; i++) {
+            if (key.charAt(i) != slash(name.charAt(i), separator)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char slash(final char c, final char separator) {
+        return (c == separator) ? '/' : c;
+    }
+
+    /* Package paths share long prefixes, so the low bits alone spread badly */
+    static int spread(final int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,292 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the classes a class refers to on background threads while the class is being defined, so the loader finds
+ * their bytes in memory when the JVM resolves them.
+ * <p/>
+ * The names are taken from the constant pool of the class file ({@link ClassFileInfo#getReferenced()}), and followed
+ * from the classes read up to a depth: at depth 1 only the classes a defined class refers to are read, at depth 2 the
+ * classes those refer to as well, and so on. A name is not queued again while it is queued, read or held, loaded
+ * classes are not queued at all and the names of the java packages are never read, those come from the boot loader.
+ * A class the loader asks for before it has been read is read by the loader itself, and no longer here.
+ * <p/>
+ * The bytes held at any time are bounded by a budget. A constant pool refers to more classes than are ever loaded
+ * (e.g. those of an exception that is never thrown), so when a read does not fit, the oldest reads that were not taken
+ * are dropped to make room. Reads that are dropped, or that were not taken when the prefetch stops, are counted as
+ * wasted, reads that are taken as hits. The names waiting to be read are bounded as well, names that do not fit are
+ * not read.
+ *
+ * @author Ivo Woltring
+ */
+abstract class Prefetcher {
+    /* The most names waiting to be read */
+    private static final int QUEUE_SIZE = 1024;
+    /* How long an idle thread waits for a name before it ends */
+    private static final long KEEP_ALIVE_SECONDS = 1L;
+
+    private final int depth;
+    private final int maxBytes;
+    private final LoaderMetrics metrics;
+    private final ThreadPoolExecutor executor;
+    /* The names queued, being read or held */
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    /* The queued names the loader asked for before they were read, and reads itself */
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, BufferedResource> classes = new ConcurrentHashMap<>();
+    /* The names held in the order they were read, the oldest are dropped first */
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private final Semaphore budget;
+    private volatile boolean stopped;
+
+    /**
+     * @param depth    how many steps to follow the constant pools from a defined class
+     * @param threads  the number of threads to read with
+     * @param maxBytes the maximum number of bytes to hold in memory
+     * @param name     the prefix for the thread names
+     * @param metrics  the metrics to count the hits and wasted reads on
+     */
+    Prefetcher(final int depth, final int threads, final int maxBytes, final String name,
+               final LoaderMetrics metrics) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive: " + depth);
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.depth = depth;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+        budget = new Semaphore(maxBytes);
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Looks up a class file on the search path.
+     *
+     * @param path the class file name
+     * @return the resource or {@code null} if it is not there
+     */
+    abstract Resource lookup(String path);
+
+    /**
+     * @param name the binary name of a class
+     * @return whether the class has already been loaded, so reading it is no longer of use
+     */
+    abstract boolean isLoaded(String name);
+
+    /**
+     * Tells the search path the class files that are queued for reading, so those that have to be fetched can be
+     * fetched together.
+     *
+     * @param paths the class file names
+     */
+    abstract void expect(List<String> paths);
+
+    /**
+     * Queues the classes a class file refers to for reading. Does not change the position of the buffer, and ignores
+     * a buffer that is not a class file, defining the class reports that.
+     *
+     * @param classFile the class file of a class about to be defined
+     */
+    void scan(final ByteBuffer classFile) {
+        scan(classFile, depth);
+    }
+
+    private void scan(final ByteBuffer classFile, final int remaining) {
+        if (stopped) {
+            return;
+        }
+        final ClassFileInfo info;
+        try {
+            info = ClassFileInfo.parse(classFile);
+        } catch (IllegalArgumentException ignored) {
+            return;
+        }
+        final List<String> queued = new ArrayList<>();
+        for (final String name : info.getReferenced()) {
+            if (!name.startsWith("java.") && !seen.contains(name) && !isLoaded(name) && seen.add(name)) {
+                try {
+                    executor.execute(new Fetch(name, remaining));
+                    queued.add(name.replace('.', '/') + ".class");
+                } catch (RejectedExecutionException ignored) {
+                    // the queue is full or the prefetch stopped, the loader reads it itself
+                    seen.remove(name);
+                }
+            }
+        }
+        if (!queued.isEmpty()) {
+            expect(queued);
+        }
+    }
+
+    private void fetch(final String name, final int remaining) {
+        final BufferedResource resource = hold(name);
+        if (resource == null) {
+            // may be queued again by the next class that refers to it
+            seen.remove(name);
+            return;
+        }
+        if (stopped || claimed.remove(name) || isLoaded(name)) {
+            // loaded while it was read
+            if (discard(name)) {
+                order.remove(name);
+            }
+            return;
+        }
+        if (remaining > 1) {
+            scan(ByteBuffer.wrap(resource.getBytes()), remaining - 1);
+        }
+    }
+
+    /*
+     * Reads the class file and holds its bytes. Null if it was not read.
+     */
+    private BufferedResource hold(final String name) {
+        if (stopped || claimed.remove(name) || isLoaded(name)) {
+            return null;
+        }
+        final BufferedResource resource;
+        try {
+            final Resource res = lookup(name.replace('.', '/') + ".class");
+            if (res == null) {
+                return null;
+            }
+            resource = BufferedResource.read(res);
+        } catch (IOException ignored) {
+            // the loader reports it when it reads the class itself
+            return null;
+        }
+        final int size = cost(resource);
+        while (!budget.tryAcquire(size)) {
+            if (!dropOldest()) {
+                // the budget is held by what the other threads are reading
+                metrics.prefetchWasted();
+                return null;
+            }
+        }
+        // in the order before the bytes are there to be taken, a take removes it again
+        order.add(name);
+        if (classes.putIfAbsent(name, resource) != null) {
+            order.remove(name);
+            budget.release(size);
+            return null;
+        }
+        return resource;
+    }
+
+    /**
+     * Takes the bytes of a class read ahead.
+     *
+     * @param name the binary name of the class
+     * @return the class file or {@code null} if it has not been read (yet)
+     */
+    BufferedResource takeClass(final String name) {
+        final BufferedResource resource = classes.isEmpty() ? null : classes.remove(name);
+        if (resource != null) {
+            order.remove(name);
+            seen.remove(name);
+            budget.release(cost(resource));
+            metrics.prefetchHit();
+        } else if (seen.contains(name)) {
+            // being read, or still to be, while the loader reads it itself
+            claimed.add(name);
+        }
+        return resource;
+    }
+
+    /*
+     * Drops the oldest read that was not taken. False if there is none.
+     */
+    private boolean dropOldest() {
+        String name;
+        while ((name = order.poll()) != null) {
+            if (discard(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Drops the bytes held for the name. Its place in the order is left to
+     * the caller. False if none were held.
+     */
+    private boolean discard(final String name) {
+        final BufferedResource resource = classes.remove(name);
+        if (resource == null) {
+            return false;
+        }
+        seen.remove(name);
+        budget.release(cost(resource));
+        metrics.prefetchWasted();
+        return true;
+    }
+
+    private int cost(final BufferedResource resource) {
+        return Math.max(1, Math.min(resource.getContentLength(), maxBytes));
+    }
+
+    /**
+     * Stops reading and drops everything not taken.
+     */
+    void stop() {
+        stopped = true;
+        executor.shutdownNow();
+        for (final String name : classes.keySet()) {
+            discard(name);
+        }
+        order.clear();
+        claimed.clear();
+    }
+
+    /**
+     * Reads one name.
+     */
+    private final class Fetch implements Runnable {
+        private final String name;
+        /* The steps left to follow from here */
+        private final int remaining;
+
+        private Fetch(final String name, final int remaining) {
+            this.name = name;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void run() {
+            fetch(name, remaining);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package nl.ivonet.classloader.trial;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of a preload of classes by {@link IvoNetClassLoader#preload(java.util.Collection)}.
+ * <p/>
+ * The timings are per class and only cover reading and defining that class itself, not the time spent waiting for
+ * its super class and interfaces to be loaded first. Classes that were already loaded, or that were loaded by a
+ * parent class loader, do not have a timing.
+ *
+ * @author Ivo Woltring
+ */
+public final class PreloadResult {
+    private final Map<String, Long> timings;
+    private final Map<String, Throwable> failures;
+    private final long elapsedNanos;
+
+    PreloadResult(final Map<String, Long> timings, final Map<String, Throwable> failures, final long elapsedNanos) {
+        this.timings = Collections.unmodifiableMap(timings);
+        this.failures = Collections.unmodifiableMap(failures);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return class name -> nanoseconds spent reading and defining it, for every class defined by the preload
+     */
+    public Map<String, Long> getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return class name -> the reason it could not be loaded, including the classes asked for that are not on the
+     *         search path or that were loaded already
+     */
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the wall clock time the whole preload took in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadResult{defined=" + timings.size() + ", failed=" + failures.size()
+               + ", elapsed=" + (elapsedNanos / 1000000) + "ms}";
+    }
+}
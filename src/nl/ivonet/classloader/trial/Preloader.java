@@ -0,0 +1,178 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads a known set of classes in parallel on a {@link ForkJoinPool}.
+ * <p/>
+ * Every class gets its own task that reads its bytes, reads the names of its super class and interfaces from the
+ * class file header and waits for the tasks of those to finish before the class itself is loaded. That way the
+ * reading of all classes happens in parallel while a class is still defined after the types it depends on. A class
+ * is only handled once, no matter how many classes depend on it.
+ * <p/>
+ * The class loader provides the reading and loading by implementing {@link #read(String)} and
+ * {@link #load(String, BufferedResource)}.
+ *
+ * @author Ivo Woltring
+ */
+abstract class Preloader {
+    private final ConcurrentMap<String, ForkJoinTask<?>> tasks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> timings = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Throwable> failures = new ConcurrentHashMap<>();
+    /* The classes asked for, a dependency that can not be preloaded is left to the normal loading */
+    private Set<String> requested = Collections.emptySet();
+
+    /**
+     * Reads the bytes of the class from the search path of the loader.
+     *
+     * @param name the binary name of the class
+     * @return the class file or {@code null} if the class is not on the search path
+     * @throws IOException if the class could not be read
+     */
+    abstract BufferedResource read(String name) throws IOException;
+
+    /**
+     * @param name the binary name of the class
+     * @return true if the loader already defined the class
+     */
+    abstract boolean isLoaded(String name);
+
+    /**
+     * Tells the search path the classes that are about to be read, so those that have to be fetched can be fetched
+     * together.
+     *
+     * @param names the binary names of the classes
+     */
+    abstract void expect(Collection<String> names);
+
+    /**
+     * Loads the class through the loader (with the normal delegation) using the bytes read before.
+     *
+     * @param name     the binary name of the class
+     * @param resource the bytes returned by {@link #read(String)}
+     * @throws ClassNotFoundException if the class could not be loaded
+     */
+    abstract void load(String name, BufferedResource resource) throws ClassNotFoundException;
+
+    /**
+     * Loads all the given classes (and the super classes and interfaces on the same search path) and waits for them
+     * to be loaded. A given class that is not on the search path, or that was loaded already, is reported as a
+     * failure; a super class or interface that is not on the search path is left to the parent loader.
+     *
+     * @param names the binary names of the classes
+     * @param pool  the pool to run on
+     * @return the timings and failures
+     */
+    PreloadResult preload(final Collection<String> names, final ForkJoinPool pool) {
+        final long t0 = System.nanoTime();
+        requested = new HashSet<>(names);
+        expect(names);
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                final List<ForkJoinTask<?>> started = new ArrayList<>(names.size());
+                for (final String name : names) {
+                    started.add(task(name, Collections.<String>emptyList()));
+                }
+                for (final ForkJoinTask<?> task : started) {
+                    task.join();
+                }
+            }
+        });
+        return new PreloadResult(timings, failures, System.nanoTime() - t0);
+    }
+
+    /*
+     * Returns the (forked) task of the class, starting it if there is none
+     * yet. The chain holds the classes depending on this one.
+     */
+    private ForkJoinTask<?> task(final String name, final List<String> chain) {
+        ForkJoinTask<?> task = tasks.get(name);
+        if (task == null) {
+            final ForkJoinTask<?> fresh = new PreloadTask(name, chain);
+            task = tasks.putIfAbsent(name, fresh);
+            if (task == null) {
+                task = fresh.fork();
+            }
+        }
+        return task;
+    }
+
+    private final class PreloadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final List<String> chain;
+
+        private PreloadTask(final String name, final List<String> chain) {
+            this.name = name;
+            this.chain = chain;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                final long t0 = System.nanoTime();
+                if (isLoaded(name)) {
+                    if (requested.contains(name)) {
+                        failures.put(name, new IllegalStateException(name + " was already loaded"));
+                    }
+                    return;
+                }
+                final BufferedResource resource = read(name);
+                if (resource == null) {
+                    if (requested.contains(name)) {
+                        failures.put(name, new ClassNotFoundException(name + " is not on the search path"));
+                    }
+                    return;
+                }
+                final ClassFileInfo info = ClassFileInfo.parse(resource.getBytes());
+                final long readNanos = System.nanoTime() - t0;
+
+                final List<String> dependents = new ArrayList<>(chain);
+                dependents.add(name);
+                final List<String> types = new ArrayList<>();
+                addType(types, dependents, info.getSuperName());
+                for (final String iface : info.getInterfaces()) {
+                    addType(types, dependents, iface);
+                }
+                final List<ForkJoinTask<?>> dependencies = new ArrayList<>(types.size());
+                if (!types.isEmpty()) {
+                    expect(types);
+                    for (final String type : types) {
+                        dependencies.add(task(type, dependents));
+                    }
+                }
+                for (final ForkJoinTask<?> dependency : dependencies) {
+                    dependency.join();
+                }
+
+                final long t1 = System.nanoTime();
+                load(name, resource);
+                timings.put(name, readNanos + (System.nanoTime() - t1));
+            } catch (IOException | ClassNotFoundException | RuntimeException | LinkageError e) {
+                // one class that can not be loaded (a sealing violation, a corrupt class file) must not stop the rest
+                failures.put(name, e);
+            }
+        }
+
+        private void addType(final List<String> types, final List<String> dependents, final String type) {
+            // a class can not depend on itself (the JVM will tell if it does), nor will it find java.* classes
+            if ((type != null) && !type.startsWith("java.") && !dependents.contains(type)) {
+                types.add(type);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package nl.ivonet.classloader.trial;
+
+import java.net.URL;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The protection domains of a loader, one for every code source URL and set of signers.
+ * <p/>
+ * The {@link java.security.SecureClassLoader} keeps a cache as well, but it is keyed by a fresh {@link CodeSource}
+ * for every class and guarded by one lock. Here the {@link CodeSource}, its permissions and the protection domain are
+ * created once for every URL and signers, and looked up without locking. The code source URL of an entry is the same
+ * URL object for all of its classes, so the lookup mostly costs an identity comparison.
+ *
+ * @author Ivo Woltring
+ */
+abstract class ProtectionDomains {
+    private final ConcurrentMap<URL, ProtectionDomain> unsigned = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, ProtectionDomain> signed = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the protection domain of a code source, computing its permissions.
+     *
+     * @param codeSource the code source
+     * @return the protection domain
+     */
+    abstract ProtectionDomain create(CodeSource codeSource);
+
+    /**
+     * Returns the protection domain for classes from the given URL and signers.
+     *
+     * @param url     the code source URL
+     * @param signers the signers of the class, may be {@code null}
+     * @return the protection domain, created only the first time
+     */
+    ProtectionDomain get(final URL url, final CodeSigner[] signers) {
+        if ((signers == null) || (signers.length == 0)) {
+            if (url == null) {
+                return create(new CodeSource(null, (CodeSigner[]) null));
+            }
+            final ProtectionDomain domain = unsigned.get(url);
+            return (domain != null) ? domain : putIfAbsent(unsigned, url, create(new CodeSource(url, signers)));
+        }
+        final Key key = new Key(url, signers);
+        final ProtectionDomain domain = signed.get(key);
+        return (domain != null) ? domain : putIfAbsent(signed, key, create(new CodeSource(url, signers)));
+    }
+
+    /*
+     * Not computeIfAbsent: computing the permissions may load classes, which
+     * should not happen while holding a lock of the map.
+     */
+    private static <K> ProtectionDomain putIfAbsent(final ConcurrentMap<K, ProtectionDomain> map, final K key,
+                                                    final ProtectionDomain domain) {
+        final ProtectionDomain raced = map.putIfAbsent(key, domain);
+        return (raced != null) ? raced : domain;
+    }
+
+    private static final class Key {
+        private final URL url;
+        private final CodeSigner[] signers;
+        private final int hash;
+
+        private Key(final URL url, final CodeSigner[] signers) {
+            this.url = url;
+            this.signers = signers;
+            hash = (31 * ((url == null) ? 0 : url.hashCode())) + Arrays.hashCode(signers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) other;
+            return ((url == null) ? (key.url == null) : url.equals(key.url)) && Arrays.equals(signers, key.signers);
+        }
+    }
+}
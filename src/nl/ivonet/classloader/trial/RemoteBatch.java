@@ -0,0 +1,149 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The batch protocol of the {@link ClassServer}: many classes and resources in one round trip.
+ * <p/>
+ * A batch is a POST to the URL of the served directory, so a plain HTTP server answers it with an error and the
+ * {@link RemoteEntry} falls back to a GET per name. The request body holds the names asked for, the
+ * {@value #PREDICT_HEADER} header how many steps the server may follow the constant pools of the classes asked for
+ * to add the classes likely to be needed next. The response holds, in order, the names asked for (found or not) and
+ * then the predicted ones that were found. Files larger than {@value #MAX_LENGTH} bytes are left out, those are asked
+ * for on their own. The Cache-Control header of the response applies to all of them.
+ * <p/>
+ * Both bodies are written with a {@link DataOutputStream}:
+ * <pre>
+ * request:  int magic, int count, count * (utf name)
+ * response: int magic, int count, count * (utf name, boolean found[, utf etag, long lastModified, int length, bytes])
+ * </pre>
+ *
+ * @author Ivo Woltring
+ */
+final class RemoteBatch {
+    static final String PREDICT_HEADER = "X-IvoNet-Predict";
+    static final String CONTENT_TYPE = "application/x-ivonet-batch";
+    /* The most names in a request and in a response */
+    static final int MAX_NAMES = 256;
+    /* The largest file in a response */
+    static final int MAX_LENGTH = 8 * 1024 * 1024;
+
+    private static final int MAGIC = 0x49564254; // IVBT
+
+    private RemoteBatch() {
+    }
+
+    static void writeRequest(final OutputStream out, final List<String> names) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(names.size());
+        for (final String name : names) {
+            data.writeUTF(name);
+        }
+        data.flush();
+    }
+
+    static List<String> readRequest(final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a batch request");
+        }
+        final int count = data.readInt();
+        if ((count < 0) || (count > MAX_NAMES)) {
+            throw new IOException("Batch of " + count + " names");
+        }
+        final List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(data.readUTF());
+        }
+        return names;
+    }
+
+    static void writeResponse(final OutputStream out, final List<Item> items) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(items.size());
+        for (final Item item : items) {
+            data.writeUTF(item.name);
+            data.writeBoolean(item.bytes != null);
+            if (item.bytes != null) {
+                data.writeUTF((item.etag == null) ? "" : item.etag);
+                data.writeLong(item.lastModified);
+                data.writeInt(item.bytes.length);
+                data.write(item.bytes);
+            }
+        }
+        data.flush();
+    }
+
+    static List<Item> readResponse(final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a batch response");
+        }
+        final int count = data.readInt();
+        if ((count < 0) || (count > MAX_NAMES)) {
+            throw new IOException("Batch of " + count + " names");
+        }
+        final List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String name = data.readUTF();
+            if (!data.readBoolean()) {
+                items.add(new Item(name, null, null, 0L));
+                continue;
+            }
+            final String etag = data.readUTF();
+            final long lastModified = data.readLong();
+            final int length = data.readInt();
+            if ((length < 0) || (length > MAX_LENGTH)) {
+                throw new IOException("Batch item " + name + " of " + length + " bytes");
+            }
+            final byte[] bytes = new byte[length];
+            data.readFully(bytes);
+            items.add(new Item(name, bytes, etag.isEmpty() ? null : etag, lastModified));
+        }
+        return items;
+    }
+
+    /**
+     * A name in a batch response, with its contents or without when it was not found.
+     */
+    static final class Item {
+        private final String name;
+        private final byte[] bytes;
+        private final String etag;
+        private final long lastModified;
+
+        Item(final String name, final byte[] bytes, final String etag, final long lastModified) {
+            this.name = name;
+            this.bytes = bytes;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the contents or {@code null} if not found
+         */
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        String getETag() {
+            return etag;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+    }
+}
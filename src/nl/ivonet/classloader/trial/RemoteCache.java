@@ -0,0 +1,224 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The classes and resources fetched over HTTP by a {@link RemoteEntry}, kept on disk between runs.
+ * <p/>
+ * The contents are stored content-addressed: in {@code objects/<sha256>} of the cache directory, so a resource that
+ * is served under many URLs (or by many servers) is stored once, and a file that does not match its name is not
+ * used. What is known about a URL (its ETag, Last-Modified, until when it is fresh and which contents it has, or that
+ * it was not found) is stored in {@code urls/<sha256 of the URL>}. A fresh URL is served without asking the server, a
+ * stale one is revalidated with a conditional request.
+ * <p/>
+ * The cache is only used when the system property {@value #DIRECTORY_PROPERTY} names its directory. The classes in it
+ * are defined without contacting the server, so it has to be as well protected as the classes themselves.
+ *
+ * @author Ivo Woltring
+ */
+final class RemoteCache {
+    static final String DIRECTORY_PROPERTY = "nl.ivonet.classloader.remoteCache";
+
+    private static final int MAGIC = 0x49565243; // IVRC
+    private static final int VERSION = 1;
+
+    private final File objects;
+    private final File urls;
+
+    private RemoteCache(final File directory) {
+        objects = new File(directory, "objects");
+        urls = new File(directory, "urls");
+    }
+
+    /**
+     * @return the cache in the directory named by the system property or {@code null} if it is not set
+     */
+    static RemoteCache fromSystemProperty() {
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        return ((directory == null) || directory.isEmpty()) ? null : new RemoteCache(new File(directory));
+    }
+
+    /**
+     * Reads what is known about a URL.
+     *
+     * @param url the URL of a class or resource
+     * @return the response or {@code null} if the URL is not in the cache (or its files are unusable)
+     */
+    Response load(final URL url) {
+        final String external = url.toExternalForm();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(urls, hex(sha256(external.getBytes(StandardCharsets.UTF_8)))))))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || !external.equals(in.readUTF())) {
+                return null;
+            }
+            final boolean found = in.readBoolean();
+            final String etag = in.readUTF();
+            final long lastModified = in.readLong();
+            final long expires = in.readLong();
+            if (!found) {
+                return Response.notFound(expires);
+            }
+            final byte[] hash = new byte[in.readUnsignedByte()];
+            in.readFully(hash);
+            final byte[] bytes = Files.readAllBytes(new File(objects, hex(hash)).toPath());
+            if (!Arrays.equals(hash, sha256(bytes))) {
+                return null;
+            }
+            return new Response(true, bytes, hash, etag.isEmpty() ? null : etag, lastModified, expires);
+        } catch (FileNotFoundException ignored) {
+            return null;
+        } catch (IOException | RuntimeException ignored) {
+            // unusable, it is fetched and written again
+            return null;
+        }
+    }
+
+    /**
+     * Stores a response, replacing the files atomically.
+     *
+     * @param url      the URL of a class or resource
+     * @param response the response of the server
+     * @throws IOException if the files could not be written
+     */
+    void store(final URL url, final Response response) throws IOException {
+        if (response.isFound()) {
+            // written again even if it is there, it may be the damaged file that made us fetch it
+            write(new File(objects, hex(response.hash)), response.bytes);
+        }
+        final String external = url.toExternalForm();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(external);
+            out.writeBoolean(response.isFound());
+            out.writeUTF((response.etag == null) ? "" : response.etag);
+            out.writeLong(response.lastModified);
+            out.writeLong(response.expires);
+            if (response.isFound()) {
+                out.writeByte(response.hash.length);
+                out.write(response.hash);
+            }
+        }
+        write(new File(urls, hex(sha256(external.getBytes(StandardCharsets.UTF_8)))), buffer.toByteArray());
+    }
+
+    private static void write(final File target, final byte[] bytes) throws IOException {
+        final File directory = target.getParentFile();
+        Files.createDirectories(directory.toPath());
+        final File temp = File.createTempFile(target.getName(), ".tmp", directory);
+        try {
+            try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                out.write(bytes);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    static byte[] sha256(final byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    private static String hex(final byte[] hash) {
+        final StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (final byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * What a server answered for a URL: its contents and validators, or that it was not found.
+     */
+    static final class Response {
+        private final boolean found;
+        private final byte[] bytes;
+        private final byte[] hash;
+        private final String etag;
+        private final long lastModified;
+        private final long expires;
+
+        private Response(final boolean found, final byte[] bytes, final byte[] hash, final String etag,
+                         final long lastModified, final long expires) {
+            this.found = found;
+            this.bytes = bytes;
+            this.hash = hash;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        /**
+         * @param bytes        the contents
+         * @param etag         the ETag header, may be {@code null}
+         * @param lastModified the Last-Modified header in milliseconds, 0 if there was none
+         * @param expires      until when the contents are fresh in milliseconds
+         * @return the response for found contents
+         */
+        static Response found(final byte[] bytes, final String etag, final long lastModified, final long expires) {
+            return new Response(true, bytes, sha256(bytes), etag, lastModified, expires);
+        }
+
+        /**
+         * @param expires until when the absence is fresh in milliseconds
+         * @return the response for a URL that was not found
+         */
+        static Response notFound(final long expires) {
+            return new Response(false, null, null, null, 0L, expires);
+        }
+
+        /**
+         * @param expires until when the contents are fresh in milliseconds
+         * @return this response, fresh until the given time
+         */
+        Response revalidated(final long expires) {
+            return new Response(found, bytes, hash, etag, lastModified, expires);
+        }
+
+        boolean isFound() {
+            return found;
+        }
+
+        boolean isFresh(final long now) {
+            return expires > now;
+        }
+
+        /**
+         * @return the contents, {@code null} if not found
+         */
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        String getETag() {
+            return etag;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+import sun.net.www.ParseUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ClassPathEntry} for a directory on an HTTP server (a http: or https: URL ending with '/').
+ * <p/>
+ * Every class or resource is fetched with a GET of its own. The connections are those of {@link HttpURLConnection},
+ * which keeps them alive and reuses them as long as every response body is read to the end, which is done here even
+ * for the error responses. What the server answered is kept in a bounded {@link LookupCache}, so a name is usually
+ * fetched once, and in the {@link RemoteCache} if one is configured. The bytes of a class file are let go once they
+ * are handed to the loader, which defines the class only once. Fresh responses from the cache are used without asking
+ * the server, stale ones are revalidated with their ETag and Last-Modified, and used as they are when the server can
+ * not be reached. How long a response is fresh is up to the Cache-Control max-age (or Expires) header of the server.
+ * <p/>
+ * A name that is not in the cache at all is asked for in a {@link RemoteBatch}, which a {@link ClassServer} answers
+ * with the classes the class asked for refers to as well, up to {@value #PREDICT_DEPTH_PROPERTY} (default
+ * {@value #DEFAULT_PREDICT_DEPTH}) steps away. Those are kept like the ones asked for, so loading a class and the
+ * classes it needs takes one round trip instead of one for every class. A name in a batch response that could refer
+ * to something outside of the directory of this entry (an absolute name, one with "..") is ignored, as the cache is
+ * shared with the entries of other servers. The names the loader expects to ask for soon (those of a preload, a
+ * replay or a prefetch, see {@link #expect(Collection)}) are added to the next batch, so names the server can not
+ * predict take a round trip together as well. A name that is in a batch on its way is waited for instead of asked for
+ * again. A server that does not understand the batch (it answers 404, 405 or 501, or with another content type) is
+ * asked with a GET per name from then on. Any other error is taken as the server being unavailable for that name only.
+ * <p/>
+ * Connecting to the server times out after {@value #CONNECT_TIMEOUT_PROPERTY} (default
+ * {@value #DEFAULT_CONNECT_TIMEOUT}) milliseconds and reading a response after {@value #READ_TIMEOUT_PROPERTY}
+ * (default {@value #DEFAULT_READ_TIMEOUT}) milliseconds, so a server that hangs fails the lookup instead of blocking
+ * the loader. A name in a batch on its way is waited for just as long.
+ * <p/>
+ * A server does not tell what packages it has, so this entry is asked for every name.
+ *
+ * @author Ivo Woltring
+ */
+final class RemoteEntry extends ClassPathEntry {
+    static final String PREDICT_DEPTH_PROPERTY = "nl.ivonet.classloader.remotePredictDepth";
+    static final int DEFAULT_PREDICT_DEPTH = 8;
+    static final String CONNECT_TIMEOUT_PROPERTY = "nl.ivonet.classloader.remoteConnectTimeout";
+    static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    static final String READ_TIMEOUT_PROPERTY = "nl.ivonet.classloader.remoteReadTimeout";
+    static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    private static final int BUFFER_SIZE = 8192;
+    /* The most a Content-Length header may reserve up front, a bigger body grows as it is read */
+    private static final int MAX_PRESIZE = 1024 * 1024;
+    /* The most expected names waiting for a batch */
+    private static final int MAX_EXPECTED = 4 * RemoteBatch.MAX_NAMES;
+
+    /* May be null */
+    private final RemoteCache cache;
+    /* Name -> what the server (or the cache) answered */
+    private final LookupCache<RemoteCache.Response> responses = new LookupCache<>(LookupCache.DEFAULT_CAPACITY);
+    private final int predictDepth = Integer.getInteger(PREDICT_DEPTH_PROPERTY, DEFAULT_PREDICT_DEPTH);
+    private final int connectTimeout = Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT);
+    private final int readTimeout = Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT);
+    /* Names that will be asked for soon and are not known yet */
+    private final Set<String> expected = ConcurrentHashMap.newKeySet();
+    /* Name -> counted down when the batch it is in has been answered */
+    private final ConcurrentMap<String, CountDownLatch> inFlight = new ConcurrentHashMap<>();
+    /* False once the server did not understand a batch */
+    private volatile boolean batch = true;
+
+    private RemoteEntry(final URL url, final RemoteCache cache) {
+        super(url);
+        this.cache = cache;
+    }
+
+    /**
+     * Creates an entry for the URL if it refers to a directory on an HTTP server.
+     *
+     * @param url   the URL on the search path
+     * @param cache the cache of fetched classes and resources, may be {@code null}
+     * @return the entry or {@code null} if the URL has to be handled by the {@link sun.misc.URLClassPath}
+     */
+    static RemoteEntry open(final URL url, final RemoteCache cache) {
+        final String protocol = url.getProtocol();
+        if (!("http".equals(protocol) || "https".equals(protocol)) || !url.getFile().endsWith("/")) {
+            return null;
+        }
+        return new RemoteEntry(url, cache);
+    }
+
+    @Override
+    Set<String> getPackagePaths() {
+        return null;
+    }
+
+    @Override
+    Resource getResource(final String name, final boolean check) {
+        final RemoteCache.Response response = lookup(name);
+        if ((response == null) || !response.isFound()) {
+            return null;
+        }
+        final URL url = resourceURL(name, check);
+        if (url == null) {
+            return null;
+        }
+        if (name.endsWith(".class")) {
+            // defined from these bytes, a later read as a resource asks the cache or the server again
+            responses.remove(name);
+        }
+        return new RemoteResource(name, url, response.getBytes());
+    }
+
+    @Override
+    URL findResource(final String name, final boolean check) {
+        final RemoteCache.Response response = lookup(name);
+        return ((response == null) || !response.isFound()) ? null : resourceURL(name, check);
+    }
+
+    @Override
+    Enumeration<URL> findResources(final String name, final boolean check) {
+        final URL url = findResource(name, check);
+        return (url == null) ? Collections.<URL>emptyEnumeration()
+                             : Collections.enumeration(Collections.singleton(url));
+    }
+
+    @Override
+    void expect(final Collection<String> names) {
+        if (!batch) {
+            return;
+        }
+        for (final String name : names) {
+            if (expected.size() >= MAX_EXPECTED) {
+                return;
+            }
+            if (responses.get(name) == null) {
+                expected.add(name);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        expected.clear();
+        responses.invalidate();
+    }
+
+    private URL resourceURL(final String name, final boolean check) {
+        try {
+            final URL url = new URL(getURL(), ParseUtil.encodePath(name, false));
+            return check ? ClassPathIndex.check(url) : url;
+        } catch (MalformedURLException ignored) {
+            return null;
+        }
+    }
+
+    /*
+     * Returns what is known about the name, asking the server only if the
+     * cache has nothing fresh. Null if the server could not be asked and the
+     * cache had nothing at all, which is not remembered.
+     */
+    private RemoteCache.Response lookup(final String name) {
+        final RemoteCache.Response known = responses.get(name);
+        if (known != null) {
+            return known;
+        }
+        final int generation = responses.generation();
+        final URL url = resourceURL(name, false);
+        if (url == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        RemoteCache.Response response = (cache == null) ? null : cache.load(url);
+        if ((response == null) && batch) {
+            final CountDownLatch fetching = inFlight.get(name);
+            if (fetching != null) {
+                await(fetching);
+                final RemoteCache.Response fetched = responses.get(name);
+                if (fetched != null) {
+                    return fetched;
+                }
+            }
+            try {
+                response = fetchBatch(name, now, generation);
+            } catch (IOException ignored) {
+                return null;
+            }
+            if (response != null) {
+                return remember(name, response, generation);
+            }
+        }
+        if ((response == null) || !response.isFresh(now)) {
+            try {
+                response = fetch(url, response, now);
+            } catch (IOException ignored) {
+                // the stale response if there is one, the server may be back for the next name
+                return response;
+            }
+        }
+        return remember(name, response, generation);
+    }
+
+    /*
+     * Not remembered once the entry is closed.
+     */
+    private RemoteCache.Response remember(final String name, final RemoteCache.Response response,
+                                          final int generation) {
+        responses.put(name, response, generation);
+        return response;
+    }
+
+    /*
+     * A GET, conditional if there is a stale response to revalidate.
+     */
+    private RemoteCache.Response fetch(final URL url, final RemoteCache.Response stale, final long now)
+            throws IOException {
+        final URLConnection urlConnection = url.openConnection();
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            throw new IOException("Not an HTTP connection: " + url);
+        }
+        final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        if (stale != null) {
+            if (stale.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", stale.getETag());
+            }
+            if (stale.getLastModified() > 0L) {
+                connection.setIfModifiedSince(stale.getLastModified());
+            }
+        }
+        final int status = connection.getResponseCode();
+        final RemoteCache.Response response;
+        if (status == HttpURLConnection.HTTP_OK) {
+            response = RemoteCache.Response.found(readFully(connection.getInputStream(), connection.getContentLength()),
+                                                  connection.getHeaderField("ETag"), connection.getLastModified(),
+                                                  expires(connection, now));
+        } else {
+            readFully(connection.getErrorStream(), -1);
+            if ((status == HttpURLConnection.HTTP_NOT_MODIFIED) && (stale != null)) {
+                response = stale.revalidated(expires(connection, now));
+            } else if ((status == HttpURLConnection.HTTP_NOT_FOUND) || (status == HttpURLConnection.HTTP_GONE)) {
+                response = RemoteCache.Response.notFound(expires(connection, now));
+            } else {
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+        }
+        if ((cache != null) && !isNoStore(connection)) {
+            try {
+                cache.store(url, response);
+            } catch (IOException ignored) {
+                // it is fetched again next time
+            }
+        }
+        return response;
+    }
+
+    /*
+     * A batch of the name and the expected names, the server adds what it
+     * predicts will be needed next. Null if the server did not understand the batch (or left
+     * the name out), which then has to be fetched on its own. A failing
+     * server throws, it may understand the next batch.
+     */
+    private RemoteCache.Response fetchBatch(final String name, final long now, final int generation)
+            throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> names = batchNames(name, done);
+        try {
+            return fetchBatch(name, names, now, generation);
+        } finally {
+            for (final String batched : names) {
+                inFlight.remove(batched, done);
+            }
+            done.countDown();
+        }
+    }
+
+    private RemoteCache.Response fetchBatch(final String name, final List<String> names, final long now,
+                                            final int generation) throws IOException {
+        final URLConnection urlConnection = getURL().openConnection();
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            batch = false;
+            return null;
+        }
+        final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", RemoteBatch.CONTENT_TYPE);
+        connection.setRequestProperty(RemoteBatch.PREDICT_HEADER, Integer.toString(predictDepth));
+        try (OutputStream out = connection.getOutputStream()) {
+            RemoteBatch.writeRequest(out, names);
+        }
+        final int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            readFully(connection.getErrorStream(), -1);
+            if ((status != HttpURLConnection.HTTP_NOT_FOUND) && (status != HttpURLConnection.HTTP_BAD_METHOD)
+                && (status != HttpURLConnection.HTTP_NOT_IMPLEMENTED)) {
+                throw new IOException("HTTP " + status + " for a batch of " + getURL());
+            }
+            batch = false;
+            return null;
+        }
+        if (!RemoteBatch.CONTENT_TYPE.equals(connection.getContentType())) {
+            readFully(connection.getInputStream(), -1);
+            batch = false;
+            return null;
+        }
+        final List<RemoteBatch.Item> items;
+        try (InputStream in = connection.getInputStream()) {
+            items = RemoteBatch.readResponse(in);
+        }
+        final long expires = expires(connection, now);
+        final boolean store = (cache != null) && !isNoStore(connection);
+        final String base = getURL().toExternalForm();
+        RemoteCache.Response asked = null;
+        for (final RemoteBatch.Item item : items) {
+            // the cache is shared by all entries, a server may only add what is below its own directory
+            if (!names.contains(item.getName()) && !isRelative(item.getName())) {
+                continue;
+            }
+            final URL url = resourceURL(item.getName(), false);
+            if ((url == null) || !url.toExternalForm().startsWith(base)) {
+                continue;
+            }
+            final RemoteCache.Response response = (item.getBytes() == null)
+                                                  ? RemoteCache.Response.notFound(expires)
+                                                  : RemoteCache.Response.found(item.getBytes(), item.getETag(),
+                                                                               item.getLastModified(), expires);
+            // remembered before the batch is done, for those waiting for it
+            remember(item.getName(), response, generation);
+            if (name.equals(item.getName())) {
+                asked = response;
+            }
+            if (store) {
+                try {
+                    cache.store(url, response);
+                } catch (IOException ignored) {
+                    // it is fetched again next time
+                }
+            }
+        }
+        return asked;
+    }
+
+    /*
+     * The name asked for first, then as many of the expected names as fit
+     * that are not in another batch already. All of them are in flight until
+     * the batch is done.
+     */
+    private List<String> batchNames(final String name, final CountDownLatch done) {
+        final List<String> names = new ArrayList<>();
+        names.add(name);
+        inFlight.putIfAbsent(name, done);
+        expected.remove(name);
+        final Iterator<String> iterator = expected.iterator();
+        while ((names.size() < RemoteBatch.MAX_NAMES) && iterator.hasNext()) {
+            final String next = iterator.next();
+            iterator.remove();
+            if ((responses.get(next) == null) && (inFlight.putIfAbsent(next, done) == null)) {
+                names.add(next);
+            }
+        }
+        return names;
+    }
+
+    /*
+     * Whether a name a server added to a batch can only refer to a resource
+     * below the directory it was asked for.
+     */
+    private static boolean isRelative(final String name) {
+        return !name.isEmpty() && !name.startsWith("/") && !("/" + name + "/").contains("/../");
+    }
+
+    /*
+     * Waits as long as the batch may take at most, a name that is still not
+     * there then is asked for on its own.
+     */
+    private void await(final CountDownLatch latch) {
+        try {
+            if ((connectTimeout > 0) && (readTimeout > 0)) {
+                latch.await((long) connectTimeout + readTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                // no timeout configured
+                latch.await();
+            }
+        } catch (InterruptedException ignored) {
+            // asked for on its own then
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Reads the body to the end and closes it, so the connection can be reused.
+     * The length the server announced only sizes the buffer, up to a limit.
+     */
+    private static byte[] readFully(final InputStream body, final int length) throws IOException {
+        if (body == null) {
+            return null;
+        }
+        try (InputStream in = body) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    (length > 0) ? Math.min(length, MAX_PRESIZE) : BUFFER_SIZE);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /*
+     * Until when the response is fresh: its max-age, or else its Expires
+     * header, or else not at all.
+     */
+    private static long expires(final HttpURLConnection connection, final long now) {
+        final String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (final String directive : cacheControl.split(",")) {
+                final String trimmed = directive.trim().toLowerCase(Locale.ENGLISH);
+                if ("no-cache".equals(trimmed)) {
+                    return now;
+                }
+                if (trimmed.startsWith("max-age=")) {
+                    try {
+                        return now + (Long.parseLong(trimmed.substring("max-age=".length())) * 1000L);
+                    } catch (NumberFormatException ignored) {
+                        return now;
+                    }
+                }
+            }
+        }
+        final long expiration = connection.getExpiration();
+        return (expiration > 0L) ? expiration : now;
+    }
+
+    private static boolean isNoStore(final HttpURLConnection connection) {
+        final String cacheControl = connection.getHeaderField("Cache-Control");
+        return (cacheControl != null) && cacheControl.toLowerCase(Locale.ENGLISH).contains("no-store");
+    }
+
+    /**
+     * A class or resource fetched from the server.
+     */
+    private final class RemoteResource extends Resource {
+        private final String name;
+        private final URL url;
+        private final byte[] bytes;
+
+        private RemoteResource(final String name, final URL url, final byte[] bytes) {
+            this.name = name;
+            this.url = url;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public URL getURL() {
+            return url;
+        }
+
+        @Override
+        public URL getCodeSourceURL() {
+            return RemoteEntry.this.getURL();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int getContentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
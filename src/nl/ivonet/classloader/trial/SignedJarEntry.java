@@ -0,0 +1,134 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLStreamHandlerFactory;
+import java.security.CodeSigner;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link ClassPathEntry} for a local signed jar of which the signatures are verified only once.
+ * <p/>
+ * A {@link sun.misc.URLClassPath} verifies the signature of every entry of a signed jar each time it is read. Here
+ * the signers found by verifying the whole jar are kept in a {@link SignerCache}, keyed by the SHA-256 hash of the
+ * jar, and a jar with a known hash is read through a {@link MappedJarEntry} that hands out those signers without
+ * verifying anything. A jar with an unknown hash is read the strict way, by a {@link URLClassPathEntry}, while it is
+ * verified in the background; once verified and still unchanged the entry switches to the mapped jar.
+ * <p/>
+ * The hash is taken of the jar as it is mapped. A jar that is replaced on disk is not seen by this entry at all, a
+ * jar that is rewritten in place can not be used safely by any loader.
+ *
+ * @author Ivo Woltring
+ */
+final class SignedJarEntry extends ClassPathEntry {
+    private final MappedJarFile jar;
+    private final URLClassPathEntry strict;
+    /* The strict entry until the jar has been verified, the mapped jar afterwards */
+    private volatile ClassPathEntry current;
+
+    private SignedJarEntry(final URL url, final MappedJarFile jar, final URLClassPathEntry strict) {
+        super(url);
+        this.jar = jar;
+        this.strict = strict;
+        current = strict;
+    }
+
+    /**
+     * Creates an entry for the URL if it refers to a local signed jar that can be mapped.
+     *
+     * @param url     the URL on the search path
+     * @param cache   the verified signers
+     * @param factory the stream handler factory for the strict entry, may be {@code null}
+     * @return the entry or {@code null} if the URL has to be handled by the {@link sun.misc.URLClassPath}
+     */
+    static SignedJarEntry open(final URL url, final SignerCache cache, final URLStreamHandlerFactory factory) {
+        final File file = MappedJarEntry.localJar(url);
+        if (file == null) {
+            return null;
+        }
+        try {
+            final MappedJarFile jar = JarRegistry.openSigned(file);
+            if (jar == null) {
+                return null;
+            }
+            final SignedJarEntry entry = new SignedJarEntry(url, jar, new URLClassPathEntry(url, factory));
+            final byte[] hash = jar.sha256();
+            final Map<String, CodeSigner[]> signers = cache.load(hash);
+            if (signers != null) {
+                entry.current = MappedJarEntry.verified(url, jar, signers);
+            } else {
+                cache.verifyLater(file, hash, new SignerCache.Verified() {
+                    @Override
+                    public void verified(final Map<String, CodeSigner[]> verified) {
+                        entry.switchTo(verified);
+                    }
+                });
+            }
+            return entry;
+        } catch (IOException ignored) {
+            // let the URLClassPath report it when the jar is actually used
+            return null;
+        }
+    }
+
+    private void switchTo(final Map<String, CodeSigner[]> signers) {
+        try {
+            current = MappedJarEntry.verified(getURL(), jar, signers);
+        } catch (MalformedURLException ignored) {
+            // stays strict
+        }
+    }
+
+    /**
+     * @return true if the entries are served with the signers found earlier, false while they are verified on read
+     */
+    boolean isVerified() {
+        return current != strict;
+    }
+
+    @Override
+    Set<String> getPackagePaths() {
+        // the same file for both, read from the central directory of the mapped jar
+        return jar.getPackagePaths();
+    }
+
+    @Override
+    Set<String> getClassPackagePaths() {
+        return jar.getClassPackagePaths();
+    }
+
+    @Override
+    MappedJarFile getMappedJar() {
+        return jar;
+    }
+
+    @Override
+    Resource getResource(final String name, final boolean check) {
+        return current.getResource(name, check);
+    }
+
+    @Override
+    URL findResource(final String name, final boolean check) {
+        return current.findResource(name, check);
+    }
+
+    @Override
+    Enumeration<URL> findResources(final String name, final boolean check) {
+        return current.findResources(name, check);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            strict.close();
+        } finally {
+            JarRegistry.release(jar);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSigner;
+import java.security.GeneralSecurityException;
+import java.security.Timestamp;
+import java.security.cert.CertPath;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The signers of the entries of signed jars, verified once and stored on disk.
+ * <p/>
+ * A signed jar is verified by reading all of its entries through a verifying {@link JarFile}, which fails on any
+ * entry that does not match its signature. The signers found are stored in a file named after the SHA-256 hash of
+ * the jar, so a jar that changes in any way is verified again. The certificate paths are stored in their standard
+ * (PkiPath) encoding, nothing is deserialized.
+ * <p/>
+ * The cache is only used when the system property {@value #DIRECTORY_PROPERTY} names its directory. Whoever can write
+ * to that directory can make the loaders believe a jar is signed by any certificate it knows, so it has to be as well
+ * protected as the jars themselves.
+ *
+ * @author Ivo Woltring
+ */
+final class SignerCache {
+    static final String DIRECTORY_PROPERTY = "nl.ivonet.classloader.signerCache";
+
+    private static final int MAGIC = 0x49565347; // IVSG
+    private static final int VERSION = 1;
+    private static final String CERT_PATH_ENCODING = "PkiPath";
+
+    /* One daemon thread verifies the jars one after the other */
+    private static final ExecutorService VERIFIER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "IvoNet signed jar verifier");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File directory;
+
+    SignerCache(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the cache in the directory named by the system property or {@code null} if it is not set
+     */
+    static SignerCache fromSystemProperty() {
+        final String directory = System.getProperty(DIRECTORY_PROPERTY);
+        return ((directory == null) || directory.isEmpty()) ? null : new SignerCache(new File(directory));
+    }
+
+    /**
+     * Reads the signers stored for a jar.
+     *
+     * @param hash the SHA-256 hash of the jar
+     * @return the signers per entry name or {@code null} if the jar has not been verified (or the file is unusable)
+     */
+    Map<String, CodeSigner[]> load(final byte[] hash) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file(hash))))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                return null;
+            }
+            final CertificateFactory factory = CertificateFactory.getInstance("X.509");
+            final CodeSigner[][] sets = new CodeSigner[in.readInt()][];
+            for (int i = 0; i < sets.length; i++) {
+                sets[i] = new CodeSigner[in.readShort()];
+                for (int j = 0; j < sets[i].length; j++) {
+                    final CertPath signerPath = readCertPath(in, factory);
+                    final Timestamp timestamp = in.readBoolean()
+                                                ? new Timestamp(new Date(in.readLong()), readCertPath(in, factory))
+                                                : null;
+                    sets[i][j] = new CodeSigner(signerPath, timestamp);
+                }
+            }
+            final int count = in.readInt();
+            final Map<String, CodeSigner[]> signers = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                signers.put(name, sets[in.readInt()]);
+            }
+            return signers;
+        } catch (FileNotFoundException ignored) {
+            return null;
+        } catch (IOException | GeneralSecurityException | RuntimeException ignored) {
+            // unusable, it is verified and written again
+            return null;
+        }
+    }
+
+    /**
+     * Stores the signers of a jar, replacing the file atomically.
+     *
+     * @param hash    the SHA-256 hash of the jar
+     * @param signers the signers per entry name
+     * @throws IOException if the file could not be written
+     */
+    void store(final byte[] hash, final Map<String, CodeSigner[]> signers) throws IOException {
+        final File target = file(hash);
+        Files.createDirectories(directory.toPath());
+        final File temp = File.createTempFile(target.getName(), ".tmp", directory);
+        try {
+            // mostly all the entries have the same signers, which are written only once
+            final Map<List<CodeSigner>, Integer> indexes = new HashMap<>();
+            final List<CodeSigner[]> sets = new ArrayList<>();
+            for (final CodeSigner[] set : signers.values()) {
+                if (!indexes.containsKey(Arrays.asList(set))) {
+                    indexes.put(Arrays.asList(set), sets.size());
+                    sets.add(set);
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sets.size());
+                for (final CodeSigner[] set : sets) {
+                    out.writeShort(set.length);
+                    for (final CodeSigner signer : set) {
+                        writeCertPath(out, signer.getSignerCertPath());
+                        final Timestamp timestamp = signer.getTimestamp();
+                        out.writeBoolean(timestamp != null);
+                        if (timestamp != null) {
+                            out.writeLong(timestamp.getTimestamp().getTime());
+                            writeCertPath(out, timestamp.getSignerCertPath());
+                        }
+                    }
+                }
+                out.writeInt(signers.size());
+                for (final Map.Entry<String, CodeSigner[]> entry : signers.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(indexes.get(Arrays.asList(entry.getValue())));
+                }
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static CertPath readCertPath(final DataInputStream in, final CertificateFactory factory)
+            throws IOException, GeneralSecurityException {
+        final byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        return factory.generateCertPath(new ByteArrayInputStream(encoded), CERT_PATH_ENCODING);
+    }
+
+    private static void writeCertPath(final DataOutputStream out, final CertPath path) throws IOException {
+        try {
+            final byte[] encoded = path.getEncoded(CERT_PATH_ENCODING);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Can not encode the certificates of " + path, e);
+        }
+    }
+
+    private File file(final byte[] hash) {
+        final StringBuilder name = new StringBuilder(hash.length * 2 + 8);
+        for (final byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(directory, name.append(".signers").toString());
+    }
+
+    /**
+     * Verifies a jar on the verifier thread and stores its signers, unless the jar no longer has the given hash.
+     *
+     * @param file     the signed jar
+     * @param hash     the SHA-256 hash of the jar as it is served
+     * @param verified called with the signers when the jar has been verified and stored
+     */
+    void verifyLater(final File file, final byte[] hash, final Verified verified) {
+        VERIFIER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Map<String, CodeSigner[]> signers = verify(file);
+                    final MappedJarFile after = MappedJarFile.openSigned(file);
+                    if ((after == null) || !Arrays.equals(hash, after.sha256())) {
+                        // changed while it was verified, the verification may be of other bytes
+                        return;
+                    }
+                    store(hash, signers);
+                    verified.verified(signers);
+                } catch (IOException | SecurityException ignored) {
+                    // not verified, the jar stays verified on every read
+                }
+            }
+        });
+    }
+
+    /*
+     * Reads every entry through a verifying JarFile, which throws a
+     * SecurityException for an entry that does not match its signature.
+     */
+    private static Map<String, CodeSigner[]> verify(final File file) throws IOException {
+        final Map<String, CodeSigner[]> signers = new HashMap<>();
+        final byte[] buffer = new byte[8192];
+        try (JarFile jar = new JarFile(file, true)) {
+            final Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                try (InputStream in = jar.getInputStream(entry)) {
+                    while (in.read(buffer) != -1) {
+                        // the signers are only known once all the bytes have been read
+                    }
+                }
+                final CodeSigner[] codeSigners = entry.getCodeSigners();
+                if (codeSigners != null) {
+                    signers.put(entry.getName(), codeSigners);
+                }
+            }
+        }
+        return signers;
+    }
+
+    /**
+     * Receives the signers of a verified jar.
+     */
+    interface Verified {
+        void verified(Map<String, CodeSigner[]> signers);
+    }
+}
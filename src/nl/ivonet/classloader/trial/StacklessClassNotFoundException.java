@@ -0,0 +1,22 @@
+package nl.ivonet.classloader.trial;
+
+/**
+ * A {@link ClassNotFoundException} without a stack trace.
+ * <p/>
+ * Thrown when a class is simply not on the search path. Filling in the stack trace is by far the most expensive part
+ * of such an exception and frameworks probing for optional classes throw (and ignore) lots of them.
+ *
+ * @author Ivo Woltring
+ */
+final class StacklessClassNotFoundException extends ClassNotFoundException {
+    private static final long serialVersionUID = 1L;
+
+    StacklessClassNotFoundException(final String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
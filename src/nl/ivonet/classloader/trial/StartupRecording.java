@@ -0,0 +1,140 @@
+package nl.ivonet.classloader.trial;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The ordered list of classes and resources a loader served during a run.
+ * <p/>
+ * Every name is recorded once, the first time it is served, with the milliseconds since the recording started. The
+ * file is written as: magic, version, count and then per record the kind (a byte), the milliseconds (an int) and the
+ * name (modified UTF-8).
+ *
+ * @author Ivo Woltring
+ */
+final class StartupRecording {
+    private static final int MAGIC = 0x49565352; // IVSR
+    private static final int VERSION = 1;
+
+    /**
+     * The kind of a record.
+     */
+    enum Kind {
+        CLASS, RESOURCE
+    }
+
+    private final long start = System.nanoTime();
+    private final Queue<Record> records = new ConcurrentLinkedQueue<>();
+    private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Records that a class or resource was served, unless it was recorded before.
+     *
+     * @param kind whether the name is a class name or a resource name
+     * @param name the binary class name or the resource name
+     */
+    void record(final Kind kind, final String name) {
+        if (seen.add(kind.ordinal() + name)) {
+            records.add(new Record(kind, name, (int) ((System.nanoTime() - start) / 1000000L)));
+        }
+    }
+
+    /**
+     * Writes the records to a file.
+     *
+     * @param file the file to (over)write
+     * @throws IOException if the file could not be written
+     */
+    void write(final File file) throws IOException {
+        final List<Record> snapshot = new ArrayList<>(records);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (final Record record : snapshot) {
+                out.writeByte(record.kind.ordinal());
+                out.writeInt(record.millis);
+                out.writeUTF(record.name);
+            }
+        }
+    }
+
+    /**
+     * Reads the records written by {@link #write(File)}.
+     *
+     * @param file the file to read
+     * @return the records in the order they were recorded
+     * @throws IOException if the file could not be read or is not a recording
+     */
+    static List<Record> read(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new IOException("Not a startup recording (or an unsupported version): " + file);
+            }
+            final int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Not a startup recording, it has " + count + " records: " + file);
+            }
+            final List<Record> result = new ArrayList<>(count);
+            final Kind[] kinds = Kind.values();
+            for (int i = 0; i < count; i++) {
+                final int kind = in.readByte();
+                if ((kind < 0) || (kind >= kinds.length)) {
+                    throw new IOException("Not a startup recording, record " + i + " has kind " + kind + ": " + file);
+                }
+                final int millis = in.readInt();
+                result.add(new Record(kinds[kind], in.readUTF(), millis));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * One class or resource served.
+     */
+    static final class Record {
+        private final Kind kind;
+        private final String name;
+        private final int millis;
+
+        private Record(final Kind kind, final String name, final int millis) {
+            this.kind = kind;
+            this.name = name;
+            this.millis = millis;
+        }
+
+        /**
+         * @return whether the name is a class name or a resource name
+         */
+        Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the binary class name or the resource name
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the milliseconds since the start of the recording
+         */
+        int getMillis() {
+            return millis;
+        }
+    }
+}
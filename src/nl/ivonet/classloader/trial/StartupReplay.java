@@ -0,0 +1,201 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the classes and resources of a {@link StartupRecording} on background threads, in the recorded order, so the
+ * loader finds their bytes in memory when it is asked for them.
+ * <p/>
+ * The bytes held at any time are bounded by a budget. Bytes are given back to the budget when they are taken, a read
+ * that does not fit in the budget for a while is dropped, so a recording that no longer matches the run can not stall
+ * the threads or hold on to more than the budget. The reads taken and dropped are counted in the {@link
+ * LoaderMetrics} of the loader.
+ *
+ * @author Ivo Woltring
+ */
+abstract class StartupReplay {
+    /* How long a thread waits for room in the budget before it drops a read */
+    private static final long BUDGET_WAIT_MILLIS = 100L;
+
+    private final List<StartupRecording.Record> records;
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final ConcurrentMap<String, BufferedResource> classes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BufferedResource> resources = new ConcurrentHashMap<>();
+    private final int maxBytes;
+    private final Semaphore budget;
+    private final LoaderMetrics metrics;
+    private volatile boolean stopped;
+
+    StartupReplay(final List<StartupRecording.Record> records, final int maxBytes, final LoaderMetrics metrics) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.records = records;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+        budget = new Semaphore(maxBytes);
+    }
+
+    /**
+     * Looks up a class file or resource on the search path.
+     *
+     * @param path the resource name, a class file name for classes
+     * @return the resource or {@code null} if it is not there
+     */
+    abstract Resource lookup(String path);
+
+    /**
+     * @param name the binary name of a class
+     * @return whether the class has already been loaded, so reading it is no longer of use
+     */
+    abstract boolean isLoaded(String name);
+
+    /**
+     * Starts reading on daemon threads.
+     *
+     * @param threads the number of threads to read with
+     * @param name    the prefix for the thread names
+     */
+    void start(final int threads, final String name) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        for (int i = 0; i < threads; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readAhead();
+                }
+            }, name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void readAhead() {
+        int index;
+        while (!stopped && ((index = cursor.getAndIncrement()) < records.size())) {
+            final StartupRecording.Record record = records.get(index);
+            final boolean isClass = record.getKind() == StartupRecording.Kind.CLASS;
+            if (isClass && isLoaded(record.getName())) {
+                continue;
+            }
+            final String path = isClass ? (record.getName().replace('.', '/') + ".class") : record.getName();
+            final BufferedResource resource;
+            try {
+                final Resource res = lookup(path);
+                if (res == null) {
+                    continue;
+                }
+                resource = BufferedResource.read(res);
+            } catch (IOException ignored) {
+                // the loader reports it when it reads the resource itself
+                continue;
+            }
+            final int size = cost(resource);
+            try {
+                if (!budget.tryAcquire(size, BUDGET_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    metrics.replayDropped();
+                    continue;
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            final ConcurrentMap<String, BufferedResource> target = isClass ? classes : resources;
+            if (target.putIfAbsent(record.getName(), resource) != null) {
+                budget.release(size);
+            } else if (stopped || (isClass && isLoaded(record.getName()))) {
+                // loaded while it was read
+                discard(target, record.getName());
+            }
+        }
+    }
+
+    /**
+     * Takes the bytes of a class read ahead.
+     *
+     * @param name the binary name of the class
+     * @return the class file or {@code null} if it has not been read (yet)
+     */
+    BufferedResource takeClass(final String name) {
+        return take(classes, name);
+    }
+
+    /**
+     * Takes the bytes of a resource read ahead, if they were read from the given URL.
+     *
+     * @param name the name of the resource
+     * @param url  the URL the resource is served from
+     * @return a stream over the bytes or {@code null} if they have not been read (yet)
+     */
+    InputStream takeResource(final String name, final URL url) {
+        if (resources.isEmpty()) {
+            return null;
+        }
+        final BufferedResource resource = resources.get(name);
+        if (resource == null) {
+            return null;
+        }
+        final boolean served = url.toExternalForm().equals(resource.getURL().toExternalForm());
+        if (!resources.remove(name, resource)) {
+            // taken by another thread
+            return null;
+        }
+        budget.release(cost(resource));
+        if (!served) {
+            // e.g. served by a parent, these bytes will not be asked for
+            metrics.replayDropped();
+            return null;
+        }
+        metrics.replayHit();
+        return new ByteArrayInputStream(resource.getBytes());
+    }
+
+    private BufferedResource take(final ConcurrentMap<String, BufferedResource> map, final String name) {
+        if (map.isEmpty()) {
+            return null;
+        }
+        final BufferedResource resource = map.remove(name);
+        if (resource != null) {
+            budget.release(cost(resource));
+            metrics.replayHit();
+        }
+        return resource;
+    }
+
+    private void discard(final ConcurrentMap<String, BufferedResource> map, final String name) {
+        final BufferedResource resource = map.remove(name);
+        if (resource != null) {
+            budget.release(cost(resource));
+        }
+    }
+
+    private int cost(final BufferedResource resource) {
+        return Math.max(1, Math.min(resource.getContentLength(), maxBytes));
+    }
+
+    /**
+     * Stops reading and drops everything not taken.
+     */
+    void stop() {
+        stopped = true;
+        for (final String name : classes.keySet()) {
+            discard(classes, name);
+        }
+        for (final String name : resources.keySet()) {
+            discard(resources, name);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package nl.ivonet.classloader.trial;
+
+import sun.misc.Resource;
+import sun.misc.URLClassPath;
+import sun.net.www.ParseUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLStreamHandlerFactory;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A {@link ClassPathEntry} backed by a {@link URLClassPath} holding just the one URL.
+ * <p/>
+ * When the entry is created the central directory of a local jar is scanned to find the package paths it can serve.
+ * Directories are not scanned: classes and packages can be added to them at any time, so like in a plain
+ * {@link URLClassPath} a directory is asked for every name. Only {@link #getClassPackagePaths()} walks the directory,
+ * each time it is called.
+ *
+ * @author Ivo Woltring
+ */
+final class URLClassPathEntry extends ClassPathEntry {
+    /* The jar index makes the JarLoader look in other jars as well */
+    private static final String INDEX_NAME = "META-INF/INDEX.LIST";
+
+    private final URLClassPath urlClassPath;
+    private final Set<String> packagePaths;
+    /* Only of a scanned jar */
+    private final Set<String> classPackagePaths;
+
+    URLClassPathEntry(final URL url, final URLStreamHandlerFactory factory) {
+        super(url);
+        final URL[] urls = {url};
+        // a null context looks the jars up with full privileges, like the old two argument constructor did
+        urlClassPath = (factory == null) ? new URLClassPath(urls) : new URLClassPath(urls, factory, null);
+        final Set<String> classPaths = new HashSet<>();
+        packagePaths = scan(url, classPaths);
+        classPackagePaths = (packagePaths == null) ? null : Collections.unmodifiableSet(classPaths);
+    }
+
+    @Override
+    Set<String> getPackagePaths() {
+        return packagePaths;
+    }
+
+    @Override
+    Set<String> getClassPackagePaths() {
+        if (classPackagePaths != null) {
+            return classPackagePaths;
+        }
+        final File file = localFile(getURL());
+        if ((file == null) || !getURL().getFile().endsWith("/")) {
+            return null;
+        }
+        final Path root = file.toPath();
+        final Set<String> result = new HashSet<>();
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                               new SimpleFileVisitor<Path>() {
+                                   @Override
+                                   public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+                                       final String name = root.relativize(path).toString()
+                                                               .replace(File.separatorChar, '/');
+                                       ClassPathIndex.addClassPackagePath(result, name);
+                                       return FileVisitResult.CONTINUE;
+                                   }
+
+                                   @Override
+                                   public FileVisitResult visitFileFailed(final Path path, final IOException exc) {
+                                       // unreadable files, symbolic link loops and a missing directory are skipped
+                                       return FileVisitResult.CONTINUE;
+                                   }
+                               });
+        } catch (IOException ignored) {
+            return null;
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    Resource getResource(final String name, final boolean check) {
+        return urlClassPath.getResource(name, check);
+    }
+
+    @Override
+    URL findResource(final String name, final boolean check) {
+        return urlClassPath.findResource(name, check);
+    }
+
+    @Override
+    Enumeration<URL> findResources(final String name, final boolean check) {
+        return urlClassPath.findResources(name, check);
+    }
+
+    @Override
+    public void close() throws IOException {
+        final List<IOException> errors = urlClassPath.closeLoaders();
+        if (errors.isEmpty()) {
+            return;
+        }
+        final IOException firstex = errors.remove(0);
+        for (final IOException error : errors) {
+            firstex.addSuppressed(error);
+        }
+        throw firstex;
+    }
+
+    /**
+     * Returns the package paths that can be found in the given URL.
+     *
+     * @param url           the URL to scan
+     * @param classPackages receives the package paths with class files in them
+     * @return the package paths or {@code null} if the URL is not a local jar or can refer to other locations
+     */
+    static Set<String> scan(final URL url, final Set<String> classPackages) {
+        final File file = localFile(url);
+        if ((file == null) || url.getFile().endsWith("/")) {
+            return null;
+        }
+        try {
+            return file.isFile() ? scanJar(file, classPackages) : null;
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    private static File localFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        final String host = url.getHost();
+        if ((host != null) && !host.isEmpty() && !"localhost".equalsIgnoreCase(host)) {
+            return null;
+        }
+        return new File(ParseUtil.decode(url.getFile().replace('/', File.separatorChar)));
+    }
+
+    private static Set<String> scanJar(final File file, final Set<String> classPackages) throws IOException {
+        try (ZipFile zip = new ZipFile(file)) {
+            if (zip.getEntry(INDEX_NAME) != null) {
+                return null;
+            }
+            final ZipEntry manifestEntry = zip.getEntry(JarFile.MANIFEST_NAME);
+            if (manifestEntry != null) {
+                try (InputStream in = zip.getInputStream(manifestEntry)) {
+                    final Manifest man = new Manifest(in);
+                    if (man.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+                        return null;
+                    }
+                }
+            }
+            final Set<String> result = new HashSet<>();
+            result.add("");
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final String name = entries.nextElement().getName();
+                ClassPathIndex.addPackagePaths(result, name);
+                ClassPathIndex.addClassPackagePath(classPackages, name);
+            }
+            return Collections.unmodifiableSet(result);
+        }
+    }
+}